@@ -0,0 +1,30 @@
+package com.oath.client.harmony;
+
+/**
+ * What {@link HarmonyClient#sendMail(String, SendMailRequest)} does when the serialized payloads
+ * waiting or in flight exceed the budget set with
+ * {@link HarmonyClient.Builder#withPayloadBudget(long, AdmissionPolicy)}.
+ *
+ * @author Mike Shauneu
+ */
+public enum AdmissionPolicy {
+
+    /**
+     * Queue the request and send it once enough payloads completed. Fail the send with
+     * {@link SendMailException.Category#OVERLOADED} if too many sends are queued already. Queued
+     * requests are serialized once first in line, they must not be changed until their send
+     * completes.
+     */
+    DEFER,
+
+    /**
+     * Fail the send with {@link SendMailException.Category#OVERLOADED}.
+     */
+    REJECT,
+
+    /**
+     * Block the calling thread until enough payloads completed.
+     */
+    BLOCK
+
+}
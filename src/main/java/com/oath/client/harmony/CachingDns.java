@@ -0,0 +1,60 @@
+package com.oath.client.harmony;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import okhttp3.Dns;
+
+/**
+ * {@link Dns} caching resolved addresses for a fixed time to live. When a refresh fails the last
+ * known addresses are used, so a slow or failing resolver does not take the client down.
+ *
+ * @author Mike Shauneu
+ */
+class CachingDns implements Dns {
+
+    private final Dns delegate;
+
+    private final long ttlNanos;
+
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    CachingDns(Dns delegate, long ttlNanos) {
+        this.delegate = delegate;
+        this.ttlNanos = ttlNanos;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        long now = System.nanoTime();
+        Entry entry = cache.get(hostname);
+        if (entry != null && now - entry.expiresAt < 0) {
+            return entry.addresses;
+        }
+        List<InetAddress> addresses;
+        try {
+            addresses = delegate.lookup(hostname);
+        } catch (UnknownHostException e) {
+            if (entry != null) {
+                return entry.addresses;
+            }
+            throw e;
+        }
+        cache.put(hostname, new Entry(addresses, now + ttlNanos));
+        return addresses;
+    }
+
+    private static class Entry {
+        final List<InetAddress> addresses;
+        final long expiresAt;
+
+        Entry(List<InetAddress> addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+package com.oath.client.harmony;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Set of equivalent Harmony endpoints with per endpoint health and latency tracking.
+ *
+ * <p>{@link #select()} routes to the healthy endpoint with the lowest exponentially weighted moving
+ * average (EWMA) latency. Every {@value #PROBE_INTERVAL}th selection goes round robin instead, so
+ * that an endpoint which was slow once gets measured again. An endpoint failing to connect is taken
+ * out of rotation for an exponentially growing back-off.
+ *
+ * @author Mike Shauneu
+ */
+class Endpoints {
+
+    static final int PROBE_INTERVAL = 32;
+
+    private static final long MIN_BACKOFF = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(30);
+
+    private final List<Endpoint> endpoints;
+
+    private final AtomicInteger selections = new AtomicInteger();
+
+    Endpoints(List<String> urls) {
+        Objects.requireNonNull(urls);
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        List<Endpoint> endpoints = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            HttpUrl httpUrl = HttpUrl.parse(Objects.requireNonNull(url));
+            if (httpUrl == null) {
+                throw new IllegalArgumentException("Invalid endpoint URL: " + url);
+            }
+            endpoints.add(new Endpoint(httpUrl));
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+    }
+
+    /**
+     * @return number of endpoints
+     */
+    int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * @return all endpoints in configuration order
+     */
+    List<Endpoint> all() {
+        return endpoints;
+    }
+
+    /**
+     * Selects an endpoint for the next call. Never returns {@code null}: when every endpoint is
+     * down the one coming back first is returned.
+     *
+     * @return endpoint
+     */
+    Endpoint select() {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        long now = System.nanoTime();
+        int selection = selections.getAndIncrement();
+        if (Math.floorMod(selection, PROBE_INTERVAL) == PROBE_INTERVAL - 1) {
+            for (int i = 0; i < endpoints.size(); i++) {
+                Endpoint endpoint = endpoints.get(Math.floorMod(selection / PROBE_INTERVAL + i, endpoints.size()));
+                if (endpoint.isAvailable(now)) {
+                    return endpoint;
+                }
+            }
+        }
+        Endpoint best = null;
+        Endpoint soonest = null;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isAvailable(now)) {
+                if (best == null || endpoint.getLatency() < best.getLatency()) {
+                    best = endpoint;
+                }
+            } else if (soonest == null || endpoint.downUntil - soonest.downUntil < 0) {
+                soonest = endpoint;
+            }
+        }
+        return best != null ? best : soonest;
+    }
+
+    /**
+     * Selects an endpoint other than given one, for a second attempt running alongside a first.
+     * Falls back to {@link #select()} when no other endpoint is available.
+     *
+     * @param exclude endpoint to avoid, may be {@code null}
+     * @return endpoint
+     */
+    Endpoint select(Endpoint exclude) {
+        if (exclude == null || endpoints.size() == 1) {
+            return select();
+        }
+        long now = System.nanoTime();
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint != exclude && endpoint.isAvailable(now)
+                    && (best == null || endpoint.getLatency() < best.getLatency())) {
+                best = endpoint;
+            }
+        }
+        return best != null ? best : select();
+    }
+
+    /**
+     * @param e call failure
+     * @return {@code true} if the call failed before reaching the server so it is safe to send it
+     *         to another endpoint
+     */
+    static boolean isConnectFailure(IOException e) {
+        return e instanceof ConnectException
+                || e instanceof NoRouteToHostException
+                || e instanceof UnknownHostException;
+    }
+
+    /**
+     * @param e timeout while connecting, a {@code SocketTimeoutException} is not a connect failure
+     *            by itself as it is also thrown while reading
+     * @return connect failure caused by given timeout
+     */
+    static ConnectException connectTimeout(IOException e) {
+        ConnectException connectFailure = new ConnectException("Connect timed out");
+        connectFailure.initCause(e);
+        return connectFailure;
+    }
+
+    /**
+     * Single endpoint with its health and latency.
+     */
+    static class Endpoint {
+
+        private final HttpUrl url;
+
+        private final AtomicLong latency = new AtomicLong();
+
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private volatile long downUntil;
+
+        private volatile boolean gzipRejected;
+
+        Endpoint(HttpUrl url) {
+            this.url = url;
+        }
+
+        /**
+         * @return base URL
+         */
+        HttpUrl getUrl() {
+            return url;
+        }
+
+        /**
+         * @return EWMA latency in nanoseconds, {@code 0} until measured
+         */
+        long getLatency() {
+            return latency.get();
+        }
+
+        /**
+         * @return number of consecutive connect failures
+         */
+        int getFailures() {
+            return failures.get();
+        }
+
+        boolean isAvailable(long now) {
+            return failures.get() == 0 || now - downUntil >= 0;
+        }
+
+        /**
+         * @return {@code false} once the endpoint rejected a gzip request body
+         */
+        boolean acceptsGzip() {
+            return !gzipRejected;
+        }
+
+        /**
+         * Records that the endpoint does not accept gzip request bodies.
+         */
+        void rejectGzip() {
+            gzipRejected = true;
+        }
+
+        /**
+         * Records a call which reached the server.
+         *
+         * @param nanos call latency
+         */
+        void success(long nanos) {
+            failures.set(0);
+            sample(nanos);
+        }
+
+        /**
+         * Records a call which reached the server but failed, e.g. timed out reading the response.
+         *
+         * @param nanos time spent until failure
+         */
+        void slow(long nanos) {
+            sample(nanos);
+        }
+
+        /**
+         * Records a connect failure and takes the endpoint out of rotation for a while.
+         */
+        void failure() {
+            int n = failures.incrementAndGet();
+            downUntil = System.nanoTime() + Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(n - 1, 16));
+        }
+
+        private void sample(long nanos) {
+            long prev;
+            long next;
+            do {
+                prev = latency.get();
+                // alpha = 1/4, the first sample is taken as is
+                next = prev == 0 ? Math.max(nanos, 1) : prev + ((nanos - prev) >> 2);
+            } while (!latency.compareAndSet(prev, next));
+        }
+
+        @Override
+        public String toString() {
+            return url.toString();
+        }
+    }
+
+}
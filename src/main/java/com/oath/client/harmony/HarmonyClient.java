@@ -1,12 +1,21 @@
 package com.oath.client.harmony;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,21 +24,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.CipherSuite;
-import okhttp3.ConnectionSpec;
 import okhttp3.Credentials;
 import okhttp3.HttpUrl;
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-import okhttp3.ResponseBody;
-import okhttp3.TlsVersion;
-import okhttp3.logging.HttpLoggingInterceptor;
-import okhttp3.logging.HttpLoggingInterceptor.Level;
 
 
 /**
@@ -46,40 +42,58 @@ import okhttp3.logging.HttpLoggingInterceptor.Level;
  *
  * @author Mike Shauneu
  */
-public class HarmonyClient {
+public class HarmonyClient implements Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HarmonyClient.class);
 
-    private static final HttpLoggingInterceptor
-			HTTP_LOGGER_DEBUG = new HttpLoggingInterceptor(LOGGER::debug).setLevel(Level.BODY),
-			HTTP_LOGGER_INFO = new HttpLoggingInterceptor(LOGGER::info).setLevel(Level.BASIC);
+    private static final String
+            MT_JSON = "application/json",
+            MT_FU = "application/x-www-form-urlencoded";
 
-    private static final MediaType
-    		MT_JSON = MediaType.parse("application/json"),
-    		MT_FU = MediaType.parse("application/x-www-form-urlencoded");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
-    private final OkHttpClient httpClient;
+    private static final int
+            TIMER_TICK_MILLIS = 100,
+            TIMER_TICKS_PER_WHEEL = 512;
 
-    private AccessTokenResponse token = new AccessTokenResponse();
+    private final Transport transport;
 
-    private final ReadWriteLock tokenReadWriteLock = new ReentrantReadWriteLock();
+    private final LongAdder[] errorCounts = new LongAdder[SendMailException.Category.values().length];
+
+    /** Replaced as a whole on refresh, so that reading it takes no lock. */
+    private volatile Token token = new Token(new AccessTokenResponse(), 0);
+
+    private final Object tokenRefreshLock = new Object();
+
+    private final Endpoints authEndpoints;
+    private final Endpoints msgEndpoints;
 
-    private String authBaseUrl;
-    private String msgBaseUrl;
     private String clientId;
     private String clientPass;
     private String userName;
     private String userPass;
+    private boolean stacklessExceptions;
+    private final SendMailValidator validator;
+    private final PayloadBudget budget;
+    private final ResultJournal journal;
+    private final RateLimiter rateLimiter = new RateLimiter();
+    private final LongAdder inFlight = new LongAdder();
+    private final HarmonyClientManagement management;
+    private final Hedging hedging;
+    private final ShardSelection shardSelection;
+    private final int gzipThreshold;
+    private final TimingWheel timer = new TimingWheel("harmony-timer",
+            TimeUnit.MILLISECONDS.toNanos(TIMER_TICK_MILLIS), TIMER_TICKS_PER_WHEEL);
+    /** Sends held back by the rate limit for less than a timer tick, run when due to the nanosecond. */
+    private final ScheduledThreadPoolExecutor pacer;
 
     /**
      * Constructor.
      * @param builder Builder
      */
     HarmonyClient(Builder builder) {
-		Objects.requireNonNull(builder.authBaseUrl);
-		this.authBaseUrl = builder.authBaseUrl;
-    	Objects.requireNonNull(builder.msgBaseUrl);
-		this.msgBaseUrl = builder.msgBaseUrl;
+		this.authEndpoints = new Endpoints(builder.authBaseUrls);
+		this.msgEndpoints = new Endpoints(builder.msgBaseUrls);
     	Objects.requireNonNull(builder.clientId);
 		this.clientId = builder.clientId;
     	Objects.requireNonNull(builder.clientPass);
@@ -88,54 +102,34 @@ public class HarmonyClient {
 		this.userName = builder.userName;
     	Objects.requireNonNull(builder.userPass);
 		this.userPass = builder.userPass;
+		this.stacklessExceptions = builder.stacklessExceptions;
+		this.validator = builder.validation ? new SendMailValidator() : null;
+		this.budget = builder.payloadBudget > 0 ? new PayloadBudget(builder.payloadBudget, builder.admissionPolicy,
+		        builder.maxDeferred) : null;
+		this.journal = builder.resultJournal;
+		this.hedging = builder.hedgePercentile > 0 ? new Hedging(builder.hedgePercentile, builder.hedgeBudget) : null;
+		for (int i = 0; i < errorCounts.length; i++) {
+		    errorCounts[i] = new LongAdder();
+		}
 
-        this.httpClient = new OkHttpClient.Builder()
-                .connectionSpecs(Arrays.asList(
-                        new ConnectionSpec.Builder(ConnectionSpec.MODERN_TLS)
-                            .tlsVersions(TlsVersion.TLS_1_2)
-                            .cipherSuites(
-                                    CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384,
-                                    CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA384,
-                                    CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA,
-                                    CipherSuite.TLS_DHE_RSA_WITH_AES_256_GCM_SHA384,
-                                    CipherSuite.TLS_DHE_RSA_WITH_AES_256_CBC_SHA256,
-                                    CipherSuite.TLS_DHE_RSA_WITH_AES_256_CBC_SHA,
-                                    CipherSuite.TLS_DHE_RSA_WITH_CAMELLIA_256_CBC_SHA,
-                                    CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256,
-                                    CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA256,
-                                    CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA,
-                                    CipherSuite.TLS_DHE_RSA_WITH_AES_128_GCM_SHA256,
-                                    CipherSuite.TLS_DHE_RSA_WITH_AES_128_CBC_SHA256,
-                                    CipherSuite.TLS_DHE_RSA_WITH_AES_128_CBC_SHA,
-                                    CipherSuite.TLS_DHE_RSA_WITH_CAMELLIA_128_CBC_SHA
-                             )
-                            .build(),
-                        new ConnectionSpec.Builder(ConnectionSpec.CLEARTEXT)
-                            .build()
-                ))
-                .addInterceptor(chain -> {
-                    if (chain.request().method().equals("POST")) {
-                        return chain.proceed(chain.request());
-                    }
+        this.shardSelection = builder.shardSelection;
+        this.gzipThreshold = builder.gzipThreshold;
+        Transport.Config transportConfig = new Transport.Config(this::authorization, builder.dnsTtlNanos,
+                builder.shards, builder.connectTimeoutMillis, builder.readTimeoutMillis);
+        this.transport = builder.transportFactory.create(transportConfig);
 
-                    Response response = chain.proceed(chain.request().newBuilder()
-                        .header("Authorization", "Bearer " +  getToken(false).getAccessToken())
-                        .build()
-                    );
-                    if (response.code() == HttpURLConnection.HTTP_FORBIDDEN) {
-                        response = chain.proceed(chain.request().newBuilder()
-                            .header("Authorization", "Bearer " + getToken(true).getAccessToken())
-                            .build()
-                        );
-                    }
-                    return response;
-                })
-                .addNetworkInterceptor(c -> {
-                	return LOGGER.isDebugEnabled()
-                			? HTTP_LOGGER_DEBUG.intercept(c)
-                			: HTTP_LOGGER_INFO.intercept(c);
-                })
-                .build();
+        rateLimiter.setRate(builder.rateLimit);
+        this.pacer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "harmony-pacer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pacer.setKeepAliveTime(60, TimeUnit.SECONDS);
+        this.pacer.allowCoreThreadTimeOut(true);
+        this.management = new HarmonyClientManagement(this, transport, journal, rateLimiter);
+        if (builder.jmxName != null) {
+            management.register(builder.jmxName);
+        }
     }
 
     /**
@@ -149,76 +143,549 @@ public class HarmonyClient {
 
         CompletableFuture<SendMailResponse> futureResponse = new CompletableFuture<>();
 
-        HttpUrl httpUrl = HttpUrl.parse(msgBaseUrl).newBuilder()
-                .addEncodedPathSegments(String.format("v3/messages/%s/send/", request.getId()))
-                .build();
+        Object event = HarmonyEvents.beginSendMail(campaign, request.getId(), recipients(request));
+        if (event != null) {
+            futureResponse.whenComplete((r, e) -> HarmonyEvents.commitSendMail(event, r, e));
+        }
+        journal(campaign, request.getId(), futureResponse);
+
+        if (!validate(request, futureResponse)) {
+            return futureResponse;
+        }
+
+        serializeAndSend(campaign, request, futureResponse, event);
+        return futureResponse;
+    }
+
+    /**
+     * Send RTM to Epsilon Harmony system at given time.
+     *
+     * @param campaign Harmony campaign id
+     * @param request {@code SendMailRequest}
+     * @param sendAt time to send at, sent right away if not in the future
+     * @return {@code CompletableFuture} of {@code SendMailResponse}, cancel it to cancel a pending send
+     * @see #sendMailAfter(String, SendMailRequest, long, TimeUnit)
+     */
+    public CompletableFuture<SendMailResponse> sendMailAt(String campaign, SendMailRequest request, Instant sendAt) {
+        long delayMillis = sendAt.toEpochMilli() - System.currentTimeMillis();
+        return sendMailAfter(campaign, request, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send RTM to Epsilon Harmony system after given delay.
+     *
+     * <p>The request is validated and serialized right away and only its bytes are held until it
+     * is due, in a timing wheel accurate to 100 ms. Due sends go through the
+     * payload budget like any other send, except that they are deferred rather than block the timer.
+     * Pending sends are cancelled when the client is closed.
+     *
+     * @param campaign Harmony campaign id
+     * @param request {@code SendMailRequest}
+     * @param delay delay, sent right away if not positive
+     * @param unit unit of delay
+     * @return {@code CompletableFuture} of {@code SendMailResponse}, cancel it to cancel a pending send
+     */
+    public CompletableFuture<SendMailResponse> sendMailAfter(String campaign, SendMailRequest request,
+            long delay, TimeUnit unit) {
+
+        if (delay <= 0) {
+            return sendMail(campaign, request);
+        }
+
+        CompletableFuture<SendMailResponse> futureResponse = new CompletableFuture<>();
+        journal(campaign, request.getId(), futureResponse);
+        if (!validate(request, futureResponse)) {
+            return futureResponse;
+        }
+        byte[] body = serialize(request, futureResponse);
+        if (body == null) {
+            return futureResponse;
+        }
+
+        ScheduledSend scheduled = new ScheduledSend(campaign, request.getId(), recipients(request), body,
+                futureResponse, false);
+        if (!timer.schedule(scheduled, unit.toNanos(delay))) {
+            // closed
+            futureResponse.cancel(false);
+            return futureResponse;
+        }
+        futureResponse.whenComplete((r, e) -> {
+            if (futureResponse.isCancelled()) {
+                scheduled.cancel();
+            }
+        });
+        return futureResponse;
+    }
 
-        RequestBody httpRequestBody;
+    private void journal(String campaign, String messageId, CompletableFuture<SendMailResponse> futureResponse) {
+        if (journal != null) {
+            futureResponse.whenComplete((r, e) -> journal.append(campaign, messageId, r, e));
+        }
+    }
+
+    private boolean validate(SendMailRequest request, CompletableFuture<SendMailResponse> futureResponse) {
+        if (validator != null) {
+            List<String> problems = validator.validate(request);
+            if (!problems.isEmpty()) {
+                futureResponse.completeExceptionally(failure(SendMailException.Category.INVALID_REQUEST, 0,
+                        SendMailValidator.message(problems), null, null));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] serialize(SendMailRequest request, CompletableFuture<SendMailResponse> futureResponse) {
+        if (hedging != null && request.getClientRequestId() == null) {
+            // lets Harmony drop the copy when both attempts get through, set on a copy so that a
+            // reused request gets a new id on every send
+            SendMailRequest copy = new SendMailRequest(request.getId(), request.getRecipients(),
+                    request.getDefaultAttributes());
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            copy.setClientRequestId(new UUID(random.nextLong(), random.nextLong()).toString());
+            request = copy;
+        }
         try {
-            httpRequestBody = RequestBody.create(MT_JSON, new ObjectMapper().writeValueAsBytes(request));
+            return MAPPER.writeValueAsBytes(request);
         } catch (JsonProcessingException e) {
-            futureResponse.completeExceptionally(new SendMailException("HARMONY: Invalid request", e));
-            return futureResponse;
+            futureResponse.completeExceptionally(failure(SendMailException.Category.INVALID_REQUEST, 0,
+                    "HARMONY: Invalid request", null, e));
+            return null;
         }
+    }
 
-        Request httpRequest = new Request.Builder()
-                .url(httpUrl)
-                .header("Accept", MT_JSON.toString())
-                .header("X-OUID", campaign)
-                .put(httpRequestBody)
-                .build();
+    private static int recipients(SendMailRequest request) {
+        return request.getRecipients() == null ? 0 : request.getRecipients().size();
+    }
+
+    private void serializeAndSend(String campaign, SendMailRequest request,
+            CompletableFuture<SendMailResponse> futureResponse, Object event) {
+
+        if (budget != null && budget.getPolicy() == AdmissionPolicy.DEFER) {
+            defer(new DeferredSend(campaign, request, event, futureResponse));
+            return;
+        }
+        byte[] body = serialize(request, futureResponse);
+        if (body == null) {
+            return;
+        }
+        HarmonyEvents.requestBytes(event, body.length);
+        admitAndSend(campaign, request.getId(), body, futureResponse, true);
+    }
+
+    /**
+     * Releases a due scheduled send into the normal send path.
+     */
+    private void release(ScheduledSend scheduled) {
+        CompletableFuture<SendMailResponse> futureResponse = scheduled.futureResponse;
+        Object event = HarmonyEvents.beginSendMail(scheduled.campaign, scheduled.messageId, scheduled.recipients);
+        if (event != null) {
+            futureResponse.whenComplete((r, e) -> HarmonyEvents.commitSendMail(event, r, e));
+            HarmonyEvents.requestBytes(event, scheduled.body.length);
+        }
+
+        admitAndSend(scheduled.campaign, scheduled.messageId, scheduled.body, futureResponse, false);
+    }
+
+    private void admitAndSend(String campaign, String messageId, byte[] body,
+            CompletableFuture<SendMailResponse> futureResponse, boolean mayBlock) {
 
-        httpClient.newCall(httpRequest).enqueue(new Callback() {
-            @Override
-            public void onResponse(Call call, Response httpResponse) {
-                ResponseBody httpResponseBody = httpResponse.body();
-                if (httpResponse.isSuccessful()) {
+        if (budget != null) {
+            switch (budget.getPolicy()) {
+            case REJECT:
+                if (!budget.tryAcquire(body.length)) {
+                    futureResponse.completeExceptionally(failure(SendMailException.Category.OVERLOADED, 0,
+                            "HARMONY: Payload budget exhausted", null, null));
+                    return;
+                }
+                break;
+            case BLOCK:
+                if (mayBlock) {
                     try {
-                    	futureResponse.complete(
-                            new ObjectMapper().readValue(httpResponseBody.byteStream(), SendMailResponse.class));
-	                } catch (Exception e) {
-	                    futureResponse.completeExceptionally(new SendMailException(e));
-	                }
+                        budget.acquire(body.length);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        futureResponse.completeExceptionally(failure(SendMailException.Category.OVERLOADED, 0,
+                                "HARMONY: Interrupted waiting for payload budget", null, e));
+                        return;
+                    }
+                    break;
+                }
+                // the timer thread never blocks, the send is deferred instead
+            default:
+                defer(new DeferredSend(campaign, messageId, body, futureResponse));
+                return;
+            }
+        }
+        sendAdmitted(campaign, messageId, body, futureResponse);
+    }
+
+    private void defer(DeferredSend send) {
+        if (!budget.acquireOrDefer(send)) {
+            send.futureResponse.completeExceptionally(failure(SendMailException.Category.OVERLOADED, 0,
+                    "HARMONY: Too many sends deferred", null, null));
+        }
+    }
+
+    private void sendAdmitted(String campaign, String messageId, byte[] body,
+            CompletableFuture<SendMailResponse> futureResponse) {
+
+        if (budget != null) {
+            futureResponse.whenComplete((r, e) -> budget.release(body.length));
+        }
+        long delay = rateLimiter.reserve();
+        if (delay > 0) {
+            ScheduledSend held = new ScheduledSend(campaign, messageId, 0, body, futureResponse, true);
+            held.dueNanos = System.nanoTime() + delay;
+            held.queueWait = HarmonyEvents.beginQueueWait("Rate Limit");
+            pace(held);
+        } else {
+            dispatch(campaign, messageId, body, futureResponse);
+        }
+    }
+
+    /**
+     * Holds a send until its rate limit slot: in the timing wheel until it is due within a tick,
+     * then in the pacer, so that sends leave at the spacing of the rate rather than in a burst per
+     * tick.
+     */
+    private void pace(ScheduledSend held) {
+        long delay = held.dueNanos - System.nanoTime();
+        long tick = TimeUnit.MILLISECONDS.toNanos(TIMER_TICK_MILLIS);
+        if (delay >= tick && held.wheel == null) {
+            // the wheel expires it at most a tick early
+            if (!timer.schedule(held, delay - tick)) {
+                held.futureResponse.cancel(false);
+            }
+            return;
+        }
+        try {
+            pacer.schedule(() -> {
+                if (pacer.isShutdown()) {
+                    held.futureResponse.cancel(false);
+                } else if (!held.futureResponse.isDone()) {
+                    HarmonyEvents.commitQueueWait(held.queueWait);
+                    dispatch(held.campaign, held.messageId, held.body, held.futureResponse);
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed
+            held.futureResponse.cancel(false);
+        }
+    }
+
+    private void dispatch(String campaign, String messageId, byte[] body,
+            CompletableFuture<SendMailResponse> futureResponse) {
+        inFlight.increment();
+        futureResponse.whenComplete((r, e) -> inFlight.decrement());
+        if (hedging == null) {
+            send(campaign, messageId, body, futureResponse, 1, null, null);
+            return;
+        }
+
+        hedging.onSend();
+        Hedge hedge = new Hedge();
+        send(campaign, messageId, body, futureResponse, 1, hedge, null);
+        long delay = hedging.getDelayNanos();
+        if (delay > 0 && !futureResponse.isDone()) {
+            ScheduledFuture<?> hedgeTimer;
+            try {
+                hedgeTimer = hedging.schedule(() -> {
+                    if (futureResponse.isDone() || !hedging.tryHedge()) {
+                        return;
+                    }
+                    // a hedge takes a free rate limit slot or is not sent, it never waits for one
+                    if (!rateLimiter.tryReserve()) {
+                        hedging.refund();
+                        return;
+                    }
+                    hedge.attempts.incrementAndGet();
+                    send(campaign, messageId, body, futureResponse, 1, hedge, hedge.endpoint);
+                }, delay);
+            } catch (RejectedExecutionException e) {
+                // closed, the send goes on without a hedge
+                return;
+            }
+            futureResponse.whenComplete((r, e) -> hedgeTimer.cancel(false));
+        }
+    }
+
+    /**
+     * Sends the request, failing over to other endpoints on connect failures.
+     *
+     * @param hedge state shared by the attempts of a hedged send, {@code null} if not hedged
+     * @param exclude endpoint of the first attempt when this is the hedge, {@code null} otherwise
+     */
+    private void send(String campaign, String messageId, byte[] body,
+            CompletableFuture<SendMailResponse> futureResponse, int attempt, Hedge hedge, Endpoints.Endpoint exclude) {
+
+        Endpoints.Endpoint endpoint = msgEndpoints.select(exclude);
+        if (hedge != null && exclude == null) {
+            hedge.endpoint = endpoint;
+        }
+        boolean gzip = gzipThreshold >= 0 && body.length >= gzipThreshold && endpoint.acceptsGzip();
+
+        TransportRequest transportRequest = new TransportRequest.Builder()
+                .withUrl(endpoint.getUrl().newBuilder()
+                        .addEncodedPathSegments(String.format("v3/messages/%s/send/", messageId))
+                        .build().toString())
+                .withHeader("Accept", MT_JSON)
+                .withHeader("X-OUID", campaign)
+                .withMethod("PUT", MT_JSON, body)
+                .withAuthenticated(true)
+                .withGzip(gzip)
+                .withShardKey(shardSelection == ShardSelection.CAMPAIGN ? campaign : null)
+                .build();
+
+        long start = System.nanoTime();
+        CompletableFuture<TransportResponse> call = transport.executeAsync(transportRequest);
+        call.whenComplete((transportResponse, t) -> {
+            if (hedge != null && futureResponse.isDone()) {
+                // the other attempt won
+                if (transportResponse != null) {
+                    close(transportResponse);
+                }
+                return;
+            }
+            if (t != null) {
+                Throwable e = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                if (e instanceof IOException && Endpoints.isConnectFailure((IOException) e)) {
+                    endpoint.failure();
+                    if (attempt < msgEndpoints.size()) {
+                        LOGGER.warn("HARMONY: {} is unreachable, failing over: {}", endpoint, e.toString());
+                        send(campaign, messageId, body, futureResponse, attempt + 1, hedge, exclude);
+                        return;
+                    }
                 } else {
-                	String error = null;
-                	try {
-                		error = new ObjectMapper().readValue(httpResponseBody.byteStream(), SendMailResponse.class)
-                					.getErrors().get(0).getResultString();
-                	} catch (Exception e) {
-	                    error = e.getMessage();
-					}
-                	futureResponse.completeExceptionally(new SendMailException(error));
+                    endpoint.slow(System.nanoTime() - start);
+                }
+                if (hedge != null && hedge.attempts.decrementAndGet() > 0) {
+                    // the other attempt may still succeed
+                    return;
                 }
+                futureResponse.completeExceptionally(failure(SendMailException.Category.TRANSPORT, 0, e.toString(), null, e));
+                return;
             }
-            @Override
-            public void onFailure(Call call, IOException e) {
-                futureResponse.completeExceptionally(new SendMailException(e));
+            if (gzip && transportResponse.getCode() == 415) {
+                // Unsupported Media Type, the endpoint does not take compressed bodies
+                close(transportResponse);
+                endpoint.rejectGzip();
+                LOGGER.warn("HARMONY: {} does not accept gzip request bodies, sending uncompressed", endpoint);
+                send(campaign, messageId, body, futureResponse, attempt, hedge, exclude);
+                return;
+            }
+            long latency = System.nanoTime() - start;
+            endpoint.success(latency);
+            if (hedging != null) {
+                hedging.record(latency);
+            }
+            try (TransportResponse response = transportResponse) {
+                if (response.isSuccessful()) {
+                    try {
+                        futureResponse.complete(MAPPER.readValue(response.getBody(), SendMailResponse.class));
+                    } catch (Exception e) {
+                        futureResponse.completeExceptionally(failure(SendMailException.Category.SERVER_ERROR,
+                                response.getCode(), "HARMONY: Invalid response", null, e));
+                    }
+                } else {
+                    futureResponse.completeExceptionally(failure(response));
+                }
+            } catch (IOException e) {
+                LOGGER.debug("HARMONY: Failed to release response", e);
             }
         });
-        return futureResponse;
+        if (hedge != null) {
+            futureResponse.whenComplete((r, e) -> call.cancel(false));
+        }
     }
 
-    private AccessTokenResponse getToken(boolean refresh) throws IOException {
-        if (refresh) {
-            try {
-                tokenReadWriteLock.writeLock().lock();
-                token = fetchToken();
-                return token;
-            } finally {
-                tokenReadWriteLock.writeLock().unlock();
+    private static void close(TransportResponse response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            LOGGER.debug("HARMONY: Failed to release response", e);
+        }
+    }
+
+    /**
+     * Releases the transport. Not necessary for the default transport, whose threads and
+     * connections are released when idle.
+     */
+    @Override
+    public void close() throws IOException {
+        management.unregister();
+        if (hedging != null) {
+            hedging.close();
+        }
+        for (TimingWheel.Timeout scheduled : timer.stop()) {
+            ((ScheduledSend) scheduled).futureResponse.cancel(false);
+        }
+        // sends in the pacer are due within a tick and cancel themselves once it is shut down
+        pacer.shutdown();
+        try {
+            pacer.awaitTermination(2 * TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (budget != null) {
+            for (PayloadBudget.Send deferred : budget.close()) {
+                ((DeferredSend) deferred).futureResponse.cancel(false);
             }
-        } else {
+        }
+        transport.close();
+    }
+
+    /**
+     * @return number of sends handed to the transport and not yet completed
+     */
+    public int getInFlightCalls() {
+        return inFlight.intValue();
+    }
+
+    /**
+     * @return number of hedges sent
+     * @see Builder#withHedging(double, double)
+     */
+    public long getHedgedSends() {
+        return hedging == null ? 0 : hedging.getHedges();
+    }
+
+    /**
+     * @return milliseconds since the access token was fetched, {@code -1} before the first fetch
+     */
+    public long getTokenAgeMillis() {
+        long fetched = token.fetchedMillis;
+        return fetched == 0 ? -1 : System.currentTimeMillis() - fetched;
+    }
+
+    /**
+     * @return JMX management interface of this client, whether registered or not
+     * @see Builder#withJmx(String)
+     */
+    public HarmonyClientMXBean getManagement() {
+        return management;
+    }
+
+    /**
+     * @return number of scheduled sends not yet due, including sends held back by the rate limit
+     * @see #sendMailAfter(String, SendMailRequest, long, TimeUnit)
+     */
+    public int getScheduledSends() {
+        return timer.size() + pacer.getQueue().size();
+    }
+
+    /**
+     * @return payload budget in bytes, {@code 0} if there is none
+     * @see Builder#withPayloadBudget(long, AdmissionPolicy)
+     */
+    public long getPayloadBudget() {
+        return budget == null ? 0 : budget.getLimit();
+    }
+
+    /**
+     * @return bytes of serialized payloads waiting or in flight, {@code 0} if there is no budget
+     */
+    public long getPayloadBytes() {
+        return budget == null ? 0 : budget.getUsed() + budget.getDeferredBytes();
+    }
+
+    /**
+     * @return number of sends deferred until payload budget frees up
+     */
+    public int getDeferredSends() {
+        return budget == null ? 0 : budget.getDeferred();
+    }
+
+    /**
+     * Number of failed sends of given category since the client was created.
+     *
+     * @param category failure category
+     * @return failure count
+     */
+    public long getErrorCount(SendMailException.Category category) {
+        return errorCounts[category.ordinal()].sum();
+    }
+
+    private SendMailException failure(TransportResponse response) {
+        int httpStatus = response.getCode();
+        List<SendMailResponse.Error> errors = null;
+        // Error responses without a body (or with a non JSON one) are common under load, do not pay
+        // for a parser failure on them.
+        String contentType = response.getContentType();
+        if (response.getContentLength() != 0 && (contentType == null || contentType.contains("json"))) {
             try {
-                tokenReadWriteLock.readLock().lock();
-                return token;
-            } finally {
-                tokenReadWriteLock.readLock().unlock();
+                errors = MAPPER.readValue(response.getBody(), SendMailResponse.class).getErrors();
+            } catch (Exception e) {
+                LOGGER.debug("HARMONY: Unreadable error response", e);
+            }
+        }
+        StringBuilder message = new StringBuilder("HARMONY: ").append(httpStatus);
+        if (errors != null) {
+            String separator = " - ";
+            for (SendMailResponse.Error error : errors) {
+                if (error.getResultString() != null) {
+                    message.append(separator).append(error.getResultString());
+                    separator = "; ";
+                }
+            }
+        }
+        return failure(SendMailException.categoryOf(httpStatus, errors), httpStatus, message.toString(), errors, null);
+    }
+
+    private SendMailException failure(SendMailException.Category category, int httpStatus, String message,
+            List<SendMailResponse.Error> errors, Throwable cause) {
+        errorCounts[category.ordinal()].increment();
+        return new SendMailException(category, httpStatus, message, errors, cause, !stacklessExceptions);
+    }
+
+    private String authorization(boolean refresh) throws IOException {
+        Token current = token;
+        if (!refresh) {
+            return current.authorization;
+        }
+        Object event = HarmonyEvents.beginAuthRetry();
+        try {
+            synchronized (tokenRefreshLock) {
+                if (token != current) {
+                    // refreshed by another thread while this one waited
+                    return token.authorization;
+                }
+                AccessTokenResponse fetched = fetchToken();
+                if (fetched != current.response) {
+                    token = new Token(fetched, System.currentTimeMillis());
+                }
+                return token.authorization;
             }
+        } finally {
+            HarmonyEvents.commitAuthRetry(event);
         }
     }
 
     private AccessTokenResponse fetchToken() throws IOException {
-        HttpUrl url = HttpUrl.parse(authBaseUrl).newBuilder()
+        IOException failure = null;
+        for (int attempt = 0; attempt < authEndpoints.size(); attempt++) {
+            Endpoints.Endpoint endpoint = authEndpoints.select();
+            long start = System.nanoTime();
+            Object event = HarmonyEvents.beginTokenFetch(endpoint);
+            try {
+                AccessTokenResponse fetched = fetchToken(endpoint.getUrl(), event);
+                endpoint.success(System.nanoTime() - start);
+                return fetched;
+            } catch (IOException e) {
+                if (!Endpoints.isConnectFailure(e)) {
+                    endpoint.slow(System.nanoTime() - start);
+                    throw e;
+                }
+                endpoint.failure();
+                LOGGER.warn("HARMONY: {} is unreachable, failing over: {}", endpoint, e.toString());
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    private AccessTokenResponse fetchToken(HttpUrl authBaseUrl, Object event) throws IOException {
+        HttpUrl url = authBaseUrl.newBuilder()
                 .addEncodedPathSegments("Epsilon/oauth2/access_token")
                 .addQueryParameter("scope", "cn mail sn givenname uid employeeNumber")
                 .addQueryParameter("grant_type", "password")
@@ -226,33 +693,177 @@ public class HarmonyClient {
                 .addQueryParameter("password", userPass)
                 .build();
 
-        Request request = new Request.Builder()
-                .url(url)
-                .header("Authorization", Credentials.basic(clientId, clientPass))
-                .post(RequestBody.create(MT_FU, new byte[0]))
+        TransportRequest request = new TransportRequest.Builder()
+                .withUrl(url.toString())
+                .withHeader("Authorization", Credentials.basic(clientId, clientPass))
+                .withMethod("POST", MT_FU, new byte[0])
                 .build();
 
-        Response response = httpClient.newCall(request).execute();
+        int status = 0;
+        try (TransportResponse response = transport.execute(request)) {
+            status = response.getCode();
+            return response.isSuccessful()
+                    ? MAPPER.readValue(response.getBody(), AccessTokenResponse.class) : token.response;
+        } finally {
+            HarmonyEvents.commitTokenFetch(event, status);
+        }
+    }
+
+    /**
+     * Access token snapshot.
+     */
+    private static final class Token {
+        final AccessTokenResponse response;
+        final String authorization;
+        /** {@code 0} for the initial empty token. */
+        final long fetchedMillis;
+
+        Token(AccessTokenResponse response, long fetchedMillis) {
+            this.response = response;
+            this.authorization = "Bearer " + response.getAccessToken();
+            this.fetchedMillis = fetchedMillis;
+        }
+    }
+
+    /**
+     * Attempts of a hedged send.
+     */
+    private static final class Hedge {
+        /** Attempts which have not failed yet. */
+        final AtomicInteger attempts = new AtomicInteger(1);
+        /** Endpoint of the first attempt, avoided by the hedge. */
+        volatile Endpoints.Endpoint endpoint;
+    }
+
+    /**
+     * Send waiting for its payload to be admitted, serialized once first in line unless it was
+     * scheduled and serialized already.
+     */
+    private final class DeferredSend implements PayloadBudget.Send {
+        final String campaign;
+        final String messageId;
+        final CompletableFuture<SendMailResponse> futureResponse;
+        private final Object event;
+        private SendMailRequest request;
+        private byte[] body;
+
+        DeferredSend(String campaign, SendMailRequest request, Object event,
+                CompletableFuture<SendMailResponse> futureResponse) {
+            this.campaign = campaign;
+            this.messageId = request.getId();
+            this.request = request;
+            this.event = event;
+            this.futureResponse = futureResponse;
+        }
+
+        DeferredSend(String campaign, String messageId, byte[] body, CompletableFuture<SendMailResponse> futureResponse) {
+            this.campaign = campaign;
+            this.messageId = messageId;
+            this.body = body;
+            this.event = null;
+            this.futureResponse = futureResponse;
+        }
+
+        @Override
+        public byte[] serialize() {
+            if (futureResponse.isDone()) {
+                // cancelled while deferred
+                return null;
+            }
+            if (body == null) {
+                body = HarmonyClient.this.serialize(request, futureResponse);
+                if (body != null) {
+                    HarmonyEvents.requestBytes(event, body.length);
+                }
+                request = null;
+            }
+            return body;
+        }
+
+        @Override
+        public void send(byte[] payload) {
+            // a cancelled send releases its payload right away
+            sendAdmitted(campaign, messageId, payload, futureResponse);
+        }
+    }
+
+    /**
+     * Serialized send waiting in the timing wheel, either scheduled or held back by the rate limit.
+     */
+    private final class ScheduledSend extends TimingWheel.Timeout {
+        final String campaign;
+        final String messageId;
+        final int recipients;
+        final byte[] body;
+        final CompletableFuture<SendMailResponse> futureResponse;
+        /** {@code true} if the send already went through the payload budget. */
+        final boolean admitted;
+        /** {@link System#nanoTime()} of the rate limit slot of an admitted send. */
+        long dueNanos;
+        /** Wait for the rate limit slot of an admitted send, {@code null} if not recorded. */
+        Object queueWait;
 
-        return response.isSuccessful()
-                ? new ObjectMapper().readValue(response.body().byteStream(), AccessTokenResponse.class) : token;
+        ScheduledSend(String campaign, String messageId, int recipients, byte[] body,
+                CompletableFuture<SendMailResponse> futureResponse, boolean admitted) {
+            this.campaign = campaign;
+            this.messageId = messageId;
+            this.recipients = recipients;
+            this.body = body;
+            this.futureResponse = futureResponse;
+            this.admitted = admitted;
+        }
 
+        @Override
+        void expire() {
+            if (futureResponse.isDone()) {
+                return;
+            }
+            if (admitted) {
+                pace(this);
+            } else {
+                release(this);
+            }
+        }
     }
 
     public static class Builder {
-        String authBaseUrl;
-        String msgBaseUrl;
+        List<String> authBaseUrls;
+        List<String> msgBaseUrls;
         String clientId;
         String clientPass;
         String userName;
         String userPass;
+        boolean stacklessExceptions;
+        long dnsTtlNanos;
+        long connectTimeoutMillis = Transport.Config.DEFAULT_TIMEOUT_MILLIS;
+        long readTimeoutMillis = Transport.Config.DEFAULT_TIMEOUT_MILLIS;
+        Transport.Factory transportFactory = OkHttpTransport.factory();
+        boolean validation;
+        long payloadBudget;
+        AdmissionPolicy admissionPolicy;
+        int maxDeferred = PayloadBudget.DEFAULT_MAX_DEFERRED;
+        ResultJournal resultJournal;
+        String jmxName;
+        double rateLimit;
+        double hedgePercentile;
+        double hedgeBudget;
+        int shards = 1;
+        ShardSelection shardSelection = ShardSelection.ROUND_ROBIN;
+        int gzipThreshold = -1;
 
         public Builder() {
-            authBaseUrl = "https://api-public.epsilon.com";
-            msgBaseUrl = "https://api.harmony.epsilon.com";
+            authBaseUrls = Arrays.asList("https://api-public.epsilon.com");
+            msgBaseUrls = Arrays.asList("https://api.harmony.epsilon.com");
 		}
         public Builder withAuthBaseUrl(String authBaseUrl) {
-            this.authBaseUrl = authBaseUrl;
+            return withAuthBaseUrls(authBaseUrl);
+        }
+        /**
+         * Equivalent authorization endpoints, the fastest healthy one is used and the others are
+         * failed over to when it cannot be connected.
+         */
+        public Builder withAuthBaseUrls(String... authBaseUrls) {
+            this.authBaseUrls = Arrays.asList(authBaseUrls);
             return this;
         }
         public Builder withClientId(String clientId) {
@@ -264,7 +875,35 @@ public class HarmonyClient {
             return this;
         }
         public Builder withMsgBaseUrl(String msgBaseUrl) {
-            this.msgBaseUrl = msgBaseUrl;
+            return withMsgBaseUrls(msgBaseUrl);
+        }
+        /**
+         * Equivalent message endpoints, each send is routed to the healthy one with the lowest
+         * recent latency and failed over to another one when it cannot be connected.
+         */
+        public Builder withMsgBaseUrls(String... msgBaseUrls) {
+            this.msgBaseUrls = Arrays.asList(msgBaseUrls);
+            return this;
+        }
+        /**
+         * Cache resolved endpoint addresses for given time, last known addresses are used when
+         * resolution fails. Disabled by default.
+         */
+        public Builder withDnsTtl(long ttl, TimeUnit unit) {
+            this.dnsTtlNanos = unit.toNanos(ttl);
+            return this;
+        }
+        /**
+         * Connect and read timeouts of HTTP calls, 10 seconds each by default.
+         */
+        public Builder withTimeouts(long connectTimeout, long readTimeout, TimeUnit unit) {
+            long connectTimeoutMillis = unit.toMillis(connectTimeout);
+            long readTimeoutMillis = unit.toMillis(readTimeout);
+            if (connectTimeoutMillis <= 0 || readTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("timeouts must be at least a millisecond");
+            }
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.readTimeoutMillis = readTimeoutMillis;
             return this;
         }
         public Builder withUserName(String userName) {
@@ -275,6 +914,129 @@ public class HarmonyClient {
             this.userPass = userPass;
             return this;
         }
+        /**
+         * Skip stack trace capture for {@link SendMailException}s reported by {@code sendMail}.
+         * Makes error storms cheaper, failures remain distinguishable by their category and status.
+         */
+        public Builder withStacklessExceptions(boolean stacklessExceptions) {
+            this.stacklessExceptions = stacklessExceptions;
+            return this;
+        }
+        /**
+         * HTTP transport, {@link OkHttpTransport} by default.
+         *
+         * @see JdkTransport
+         * @see InMemoryTransport
+         */
+        public Builder withTransport(Transport.Factory transportFactory) {
+            this.transportFactory = Objects.requireNonNull(transportFactory);
+            return this;
+        }
+        /**
+         * Normalize and validate requests with {@link SendMailValidator} before sending, invalid
+         * requests fail with {@link SendMailException.Category#INVALID_REQUEST} without a round trip.
+         */
+        public Builder withValidation(boolean validation) {
+            this.validation = validation;
+            return this;
+        }
+        /**
+         * Limit the bytes of serialized payloads waiting or in flight, applying given policy to
+         * sends over the limit. Unlimited by default.
+         */
+        public Builder withPayloadBudget(long bytes, AdmissionPolicy policy) {
+            return withPayloadBudget(bytes, policy, PayloadBudget.DEFAULT_MAX_DEFERRED);
+        }
+        /**
+         * Limit the bytes of serialized payloads waiting or in flight, applying given policy to
+         * sends over the limit, and the number of sends deferred. Sends over that number fail with
+         * {@link SendMailException.Category#OVERLOADED}.
+         */
+        public Builder withPayloadBudget(long bytes, AdmissionPolicy policy, int maxDeferred) {
+            if (maxDeferred < 0) {
+                throw new IllegalArgumentException("maxDeferred must not be negative");
+            }
+            this.payloadBudget = bytes;
+            this.admissionPolicy = Objects.requireNonNull(policy);
+            this.maxDeferred = maxDeferred;
+            return this;
+        }
+        /**
+         * Journal the result of every send, see {@link ResultJournal}. Not journaled by default.
+         */
+        public Builder withResultJournal(ResultJournal resultJournal) {
+            this.resultJournal = resultJournal;
+            return this;
+        }
+        /**
+         * Register a {@link HarmonyClientMXBean} under given name for live statistics and tuning.
+         * Not registered by default.
+         */
+        public Builder withJmx(String name) {
+            this.jmxName = name;
+            return this;
+        }
+        /**
+         * Space sends evenly at given rate, sends over it wait in the timing wheel, and for the
+         * last tick in a scheduled executor, rather than block. Unlimited by default, changeable at
+         * runtime through JMX.
+         */
+        public Builder withRateLimit(double sendsPerSecond) {
+            if (sendsPerSecond < 0) {
+                throw new IllegalArgumentException("sendsPerSecond must not be negative");
+            }
+            this.rateLimit = sendsPerSecond;
+            return this;
+        }
+        /**
+         * Hedge sends not completed within given percentile of recent latencies with a second
+         * attempt, preferably to another endpoint, on another connection. The first response wins
+         * and the other attempt is cancelled. Requests without a {@code clientRequestId} are sent
+         * with one generated per send, so that Harmony drops the copy if both get through. A hedge
+         * counts against the rate limit and is only sent if it has a free slot. Not hedged by
+         * default.
+         *
+         * @param percentile latency percentile to hedge at, for example {@code 0.95}
+         * @param budget maximum ratio of hedges to sends, for example {@code 0.05}
+         */
+        public Builder withHedging(double percentile, double budget) {
+            if (!(percentile > 0 && percentile < 1)) {
+                throw new IllegalArgumentException("percentile must be between 0 and 1");
+            }
+            if (!(budget > 0 && budget <= 1)) {
+                throw new IllegalArgumentException("budget must be between 0 and 1");
+            }
+            this.hedgePercentile = percentile;
+            this.hedgeBudget = budget;
+            return this;
+        }
+        /**
+         * Spread calls over given number of independent dispatcher and connection pool shards, to
+         * avoid contention on a single dispatcher at high call rates. Unsharded by default, supported by
+         * {@link OkHttpTransport} and by {@link JdkTransport} on Java 11 and later.
+         */
+        public Builder withShards(int shards, ShardSelection selection) {
+            if (shards <= 0) {
+                throw new IllegalArgumentException("shards must be positive");
+            }
+            this.shards = shards;
+            this.shardSelection = Objects.requireNonNull(selection);
+            return this;
+        }
+        /**
+         * Gzip request bodies of at least given size while writing them. An endpoint answering
+         * {@code 415 Unsupported Media Type} to a compressed body gets uncompressed bodies from then
+         * on, the send is retried uncompressed. Not compressed by default.
+         *
+         * @param minBytes smallest serialized request to compress, for example {@code 1024}
+         */
+        public Builder withGzip(int minBytes) {
+            if (minBytes < 0) {
+                throw new IllegalArgumentException("minBytes must not be negative");
+            }
+            this.gzipThreshold = minBytes;
+            return this;
+        }
         public HarmonyClient build() {
         	return new HarmonyClient(this);
         }
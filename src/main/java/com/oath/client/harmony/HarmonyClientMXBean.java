@@ -0,0 +1,133 @@
+package com.oath.client.harmony;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of a {@link HarmonyClient}, registered with
+ * {@link HarmonyClient.Builder#withJmx(String)} as
+ * {@code com.oath.client.harmony:type=HarmonyClient,name=<name>}.
+ *
+ * <p>Setters take effect for the next calls, calls in flight are not disturbed. Attributes the
+ * transport does not support read {@code -1} and reject changes.
+ *
+ * @author Mike Shauneu
+ */
+public interface HarmonyClientMXBean {
+
+    /**
+     * @return sends handed to the transport and not yet completed
+     */
+    int getInFlightCalls();
+
+    /**
+     * @return calls queued by the transport, waiting for a thread or a connection
+     */
+    int getQueuedCalls();
+
+    /**
+     * @return calls executed by the transport
+     */
+    int getRunningCalls();
+
+    /**
+     * @return sends deferred until payload budget frees up
+     */
+    int getDeferredSends();
+
+    /**
+     * @return scheduled sends not yet due, including sends held back by the rate limit
+     */
+    int getScheduledSends();
+
+    /**
+     * @return bytes of serialized payloads waiting or in flight, {@code 0} if there is no budget
+     */
+    long getPayloadBytes();
+
+    /**
+     * @return hedges sent, see {@link HarmonyClient.Builder#withHedging(double, double)}
+     */
+    long getHedgedSends();
+
+    /**
+     * @return pooled connections
+     */
+    int getPoolConnections();
+
+    /**
+     * @return idle pooled connections
+     */
+    int getIdlePoolConnections();
+
+    /**
+     * @return milliseconds since the access token was fetched, {@code -1} before the first fetch
+     */
+    long getTokenAgeMillis();
+
+    /**
+     * @return failed sends per category since the client was created
+     */
+    Map<String, Long> getErrorCounts();
+
+    /**
+     * @return results waiting to be written to the result journal, {@code -1} without a journal
+     */
+    int getJournalPending();
+
+    /**
+     * @return maximum number of calls executed at once
+     */
+    int getMaxRequests();
+
+    void setMaxRequests(int maxRequests);
+
+    /**
+     * @return maximum number of calls executed at once per host
+     */
+    int getMaxRequestsPerHost();
+
+    void setMaxRequestsPerHost(int maxRequestsPerHost);
+
+    /**
+     * @return sends per second, {@code 0} when unlimited
+     */
+    double getRateLimit();
+
+    void setRateLimit(double sendsPerSecond);
+
+    /**
+     * @return connect timeout in milliseconds
+     */
+    long getConnectTimeoutMillis();
+
+    void setConnectTimeoutMillis(long connectTimeoutMillis);
+
+    /**
+     * @return read and write timeout in milliseconds
+     */
+    long getReadTimeoutMillis();
+
+    void setReadTimeoutMillis(long readTimeoutMillis);
+
+    /**
+     * @return how long the result journal writer lets results accumulate, {@code -1} without a
+     *         journal
+     */
+    long getJournalLingerMillis();
+
+    void setJournalLingerMillis(long lingerMillis);
+
+    /**
+     * @return HTTP log level: {@code NONE}, {@code BASIC}, {@code HEADERS} or {@code BODY}
+     */
+    String getLogLevel();
+
+    /**
+     * Overrides the HTTP log level, an empty value derives it from the logger configuration again.
+     * The override picks what is logged, not whether: with the default transport it is logged at
+     * INFO through the {@code com.oath.client.harmony.OkHttpTransport} logger, which has to be
+     * enabled for INFO.
+     */
+    void setLogLevel(String logLevel);
+
+}
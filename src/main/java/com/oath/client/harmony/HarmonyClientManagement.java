@@ -0,0 +1,208 @@
+package com.oath.client.harmony;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link HarmonyClientMXBean} of a client.
+ *
+ * @author Mike Shauneu
+ */
+final class HarmonyClientManagement implements HarmonyClientMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HarmonyClient.class);
+
+    private final HarmonyClient client;
+    private final Transport transport;
+    private final ResultJournal journal;
+    private final RateLimiter rateLimiter;
+    private ObjectName objectName;
+
+    HarmonyClientManagement(HarmonyClient client, Transport transport, ResultJournal journal, RateLimiter rateLimiter) {
+        this.client = client;
+        this.transport = transport;
+        this.journal = journal;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Registers with the platform MBean server, a failure is logged rather than failing the client.
+     */
+    void register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("com.oath.client.harmony:type=HarmonyClient,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            LOGGER.warn("HARMONY: Failed to register MBean {}", name, e);
+        }
+    }
+
+    void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOGGER.warn("HARMONY: Failed to unregister MBean {}", objectName, e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public int getInFlightCalls() {
+        return client.getInFlightCalls();
+    }
+
+    @Override
+    public int getQueuedCalls() {
+        return transport.getQueuedCalls();
+    }
+
+    @Override
+    public int getRunningCalls() {
+        return transport.getRunningCalls();
+    }
+
+    @Override
+    public int getDeferredSends() {
+        return client.getDeferredSends();
+    }
+
+    @Override
+    public int getScheduledSends() {
+        return client.getScheduledSends();
+    }
+
+    @Override
+    public long getPayloadBytes() {
+        return client.getPayloadBytes();
+    }
+
+    @Override
+    public long getHedgedSends() {
+        return client.getHedgedSends();
+    }
+
+    @Override
+    public int getPoolConnections() {
+        return transport.getConnectionCount();
+    }
+
+    @Override
+    public int getIdlePoolConnections() {
+        return transport.getIdleConnectionCount();
+    }
+
+    @Override
+    public long getTokenAgeMillis() {
+        return client.getTokenAgeMillis();
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> errorCounts = new LinkedHashMap<>();
+        for (SendMailException.Category category : SendMailException.Category.values()) {
+            errorCounts.put(category.name(), client.getErrorCount(category));
+        }
+        return errorCounts;
+    }
+
+    @Override
+    public int getJournalPending() {
+        return journal == null ? -1 : journal.getPending();
+    }
+
+    @Override
+    public int getMaxRequests() {
+        return transport.getMaxRequests();
+    }
+
+    @Override
+    public void setMaxRequests(int maxRequests) {
+        LOGGER.info("HARMONY: Setting max requests to {}", maxRequests);
+        transport.setMaxRequests(maxRequests);
+    }
+
+    @Override
+    public int getMaxRequestsPerHost() {
+        return transport.getMaxRequestsPerHost();
+    }
+
+    @Override
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        LOGGER.info("HARMONY: Setting max requests per host to {}", maxRequestsPerHost);
+        transport.setMaxRequestsPerHost(maxRequestsPerHost);
+    }
+
+    @Override
+    public double getRateLimit() {
+        return rateLimiter.getRate();
+    }
+
+    @Override
+    public void setRateLimit(double sendsPerSecond) {
+        LOGGER.info("HARMONY: Setting rate limit to {} sends per second", sendsPerSecond);
+        rateLimiter.setRate(sendsPerSecond);
+    }
+
+    @Override
+    public long getConnectTimeoutMillis() {
+        return transport.getConnectTimeoutMillis();
+    }
+
+    @Override
+    public void setConnectTimeoutMillis(long connectTimeoutMillis) {
+        LOGGER.info("HARMONY: Setting connect timeout to {}ms", connectTimeoutMillis);
+        transport.setConnectTimeoutMillis(connectTimeoutMillis);
+    }
+
+    @Override
+    public long getReadTimeoutMillis() {
+        return transport.getReadTimeoutMillis();
+    }
+
+    @Override
+    public void setReadTimeoutMillis(long readTimeoutMillis) {
+        LOGGER.info("HARMONY: Setting read timeout to {}ms", readTimeoutMillis);
+        transport.setReadTimeoutMillis(readTimeoutMillis);
+    }
+
+    @Override
+    public long getJournalLingerMillis() {
+        return journal == null ? -1 : journal.getLinger(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void setJournalLingerMillis(long lingerMillis) {
+        if (journal == null) {
+            throw new UnsupportedOperationException("No result journal");
+        }
+        LOGGER.info("HARMONY: Setting result journal linger to {}ms", lingerMillis);
+        journal.setLinger(lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String getLogLevel() {
+        return transport.getLogLevel();
+    }
+
+    @Override
+    public void setLogLevel(String logLevel) {
+        LOGGER.info("HARMONY: Setting HTTP log level to {}", logLevel);
+        transport.setLogLevel(logLevel == null || logLevel.trim().isEmpty() ? null : logLevel.trim());
+    }
+
+}
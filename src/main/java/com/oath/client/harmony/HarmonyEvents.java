@@ -0,0 +1,114 @@
+package com.oath.client.harmony;
+
+/**
+ * Java Flight Recorder events of the client, so that client slowness can be correlated with GC and
+ * safepoint pauses in a recording.
+ *
+ * <p>Events are handed around as plain {@code Object}s and every method accepts {@code null}: the
+ * {@code begin} methods return {@code null} when the event is not recorded, or when the JVM has no
+ * Flight Recorder, so nothing is allocated or measured unless a recording enables the event.
+ *
+ * <p>The events extend {@code jdk.jfr.Event}, so they are compiled for Java 11 apart from the rest
+ * of the library and their {@link Recorder} is only loaded when the JVM has a Flight Recorder.
+ *
+ * @author Mike Shauneu
+ */
+final class HarmonyEvents {
+
+    /** Flight Recorder backed recorder, {@code null} before Java 11 or without a Flight Recorder. */
+    private static final Recorder RECORDER = recorder();
+
+    private HarmonyEvents() {
+    }
+
+    private static Recorder recorder() {
+        ClassLoader classLoader = HarmonyEvents.class.getClassLoader();
+        try {
+            Class.forName("jdk.jfr.Event", false, classLoader);
+            return (Recorder) Class.forName("com.oath.client.harmony.JfrRecorder", true, classLoader)
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code true} if events are recorded when a recording enables them
+     */
+    static boolean isAvailable() {
+        return RECORDER != null;
+    }
+
+    static Object beginSendMail(String campaign, String messageId, int recipients) {
+        return RECORDER == null ? null : RECORDER.beginSendMail(campaign, messageId, recipients);
+    }
+
+    static void requestBytes(Object event, long bytes) {
+        if (event != null) {
+            RECORDER.requestBytes(event, bytes);
+        }
+    }
+
+    static void commitSendMail(Object event, SendMailResponse response, Throwable t) {
+        if (event != null) {
+            RECORDER.commitSendMail(event, response, t);
+        }
+    }
+
+    static Object beginTokenFetch(Object endpoint) {
+        return RECORDER == null ? null : RECORDER.beginTokenFetch(endpoint);
+    }
+
+    static void commitTokenFetch(Object event, int status) {
+        if (event != null) {
+            RECORDER.commitTokenFetch(event, status);
+        }
+    }
+
+    static Object beginAuthRetry() {
+        return RECORDER == null ? null : RECORDER.beginAuthRetry();
+    }
+
+    static void commitAuthRetry(Object event) {
+        if (event != null) {
+            RECORDER.commitAuthRetry(event);
+        }
+    }
+
+    static Object beginQueueWait(String queue) {
+        return RECORDER == null ? null : RECORDER.beginQueueWait(queue);
+    }
+
+    static void commitQueueWait(Object event) {
+        if (event != null) {
+            RECORDER.commitQueueWait(event);
+        }
+    }
+
+    /**
+     * Creates and commits the events, {@code begin} methods return {@code null} for events not
+     * enabled by a recording and {@code commit} methods are only given events a {@code begin}
+     * method returned.
+     */
+    interface Recorder {
+
+        Object beginSendMail(String campaign, String messageId, int recipients);
+
+        void requestBytes(Object event, long bytes);
+
+        void commitSendMail(Object event, SendMailResponse response, Throwable t);
+
+        Object beginTokenFetch(Object endpoint);
+
+        void commitTokenFetch(Object event, int status);
+
+        Object beginAuthRetry();
+
+        void commitAuthRetry(Object event);
+
+        Object beginQueueWait(String queue);
+
+        void commitQueueWait(Object event);
+    }
+
+}
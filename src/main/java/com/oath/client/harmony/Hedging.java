@@ -0,0 +1,151 @@
+package com.oath.client.harmony;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hedging policy: when a send has not completed within a percentile of recent latencies a second
+ * attempt is sent, within a budget of extra load.
+ *
+ * <p>The delay is the percentile of the last {@value #WINDOW} call latencies, recomputed every
+ * {@value #RECOMPUTE_INTERVAL} calls; there is no hedging before {@value #MIN_SAMPLES} calls were
+ * measured. The budget is a token bucket: every send earns the budget ratio of a token and a hedge
+ * spends a whole one, so that hedges stay under that ratio of sends with bursts of at most
+ * {@value #MAX_TOKENS} hedges.
+ *
+ * @author Mike Shauneu
+ */
+final class Hedging {
+
+    static final int WINDOW = 1024, RECOMPUTE_INTERVAL = 128, MIN_SAMPLES = 100, MAX_TOKENS = 10;
+
+    private static final long TOKEN = 1000;
+
+    private final double percentile;
+    private final long earnedPerSend;
+
+    private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicBoolean computing = new AtomicBoolean();
+    private volatile long delayNanos = -1;
+
+    private final AtomicLong tokens = new AtomicLong();
+    private final LongAdder hedges = new LongAdder();
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * Constructor.
+     *
+     * @param percentile latency percentile to hedge at, between 0 and 1 exclusive
+     * @param budget maximum ratio of hedges to sends, between 0 exclusive and 1 inclusive
+     */
+    Hedging(double percentile, double budget) {
+        if (!(percentile > 0 && percentile < 1)) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1");
+        }
+        if (!(budget > 0 && budget <= 1)) {
+            throw new IllegalArgumentException("budget must be between 0 and 1");
+        }
+        this.percentile = percentile;
+        this.earnedPerSend = Math.max((long) (budget * TOKEN), 1);
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "harmony-hedge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Records the latency of a call.
+     *
+     * @param nanos latency
+     */
+    void record(long nanos) {
+        long n = recorded.getAndIncrement();
+        samples.set((int) (n % WINDOW), nanos);
+        if ((n + 1) % RECOMPUTE_INTERVAL == 0 && n + 1 >= MIN_SAMPLES) {
+            recompute((int) Math.min(n + 1, WINDOW));
+        }
+    }
+
+    private void recompute(int count) {
+        if (!computing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long[] sorted = new long[count];
+            for (int i = 0; i < count; i++) {
+                sorted[i] = samples.get(i);
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * count) - 1;
+            delayNanos = Math.max(sorted[Math.max(index, 0)], 1);
+        } finally {
+            computing.set(false);
+        }
+    }
+
+    /**
+     * @return delay after which to hedge a send, {@code -1} until enough calls were measured
+     */
+    long getDelayNanos() {
+        return delayNanos;
+    }
+
+    /**
+     * Earns the budget share of a send.
+     */
+    void onSend() {
+        tokens.accumulateAndGet(earnedPerSend, (t, earned) -> Math.min(t + earned, MAX_TOKENS * TOKEN));
+    }
+
+    /**
+     * Spends a token of the budget.
+     *
+     * @return {@code false} if the budget is exhausted
+     */
+    boolean tryHedge() {
+        for (;;) {
+            long t = tokens.get();
+            if (t < TOKEN) {
+                return false;
+            }
+            if (tokens.compareAndSet(t, t - TOKEN)) {
+                hedges.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back the token of a hedge which was not sent after all.
+     */
+    void refund() {
+        hedges.decrement();
+        tokens.accumulateAndGet(TOKEN, (t, token) -> Math.min(t + token, MAX_TOKENS * TOKEN));
+    }
+
+    /**
+     * @return number of hedges sent
+     */
+    long getHedges() {
+        return hedges.sum();
+    }
+
+    ScheduledFuture<?> schedule(Runnable hedge, long delayNanos) {
+        return scheduler.schedule(hedge, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void close() {
+        scheduler.shutdownNow();
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.oath.client.harmony;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loopback {@link Transport} answering requests with an in process {@link Handler}, removing
+ * network and HTTP costs from tests and benchmarks. Requests are handled on the calling thread.
+ *
+ * <pre>
+ * HarmonyClient client = new HarmonyClient.Builder()
+ *     .withTransport(InMemoryTransport.factory(request -&gt; new TransportResponse(200, "application/json", body)))
+ *     ...
+ * </pre>
+ *
+ * @author Mike Shauneu
+ */
+public class InMemoryTransport implements Transport {
+
+    /**
+     * Answers requests.
+     */
+    @FunctionalInterface
+    public interface Handler {
+
+        /**
+         * @param request request, including the {@code Authorization} header if authenticated. The
+         *            body of a {@link TransportRequest#isGzip() gzip} request is not compressed.
+         * @return response
+         * @throws IOException to simulate a transport failure
+         */
+        TransportResponse handle(TransportRequest request) throws IOException;
+    }
+
+    private final Transport.Authorizer authorizer;
+
+    private final Handler handler;
+
+    /**
+     * Constructor.
+     *
+     * @param config client settings
+     * @param handler handler answering requests
+     */
+    public InMemoryTransport(Transport.Config config, Handler handler) {
+        this.authorizer = config.getAuthorizer();
+        this.handler = handler;
+    }
+
+    /**
+     * @param handler handler answering requests
+     * @return {@link Transport.Factory} of this transport
+     */
+    public static Transport.Factory factory(Handler handler) {
+        return config -> new InMemoryTransport(config, handler);
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        if (!request.isAuthenticated()) {
+            return handler.handle(request);
+        }
+        TransportResponse response = handler.handle(request.newBuilder()
+                .withHeader("Authorization", authorizer.authorization(false))
+                .build());
+        if (response.getCode() == HttpURLConnection.HTTP_FORBIDDEN) {
+            response.close();
+            response = handler.handle(request.newBuilder()
+                    .withHeader("Authorization", authorizer.authorization(true))
+                    .build());
+        }
+        return response;
+    }
+
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+        CompletableFuture<TransportResponse> futureResponse = new CompletableFuture<>();
+        try {
+            futureResponse.complete(execute(request));
+        } catch (IOException | RuntimeException e) {
+            futureResponse.completeExceptionally(e);
+        }
+        return futureResponse;
+    }
+
+}
@@ -0,0 +1,258 @@
+package com.oath.client.harmony;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Transport} backed by the JDK, without third party dependencies.
+ *
+ * <p>On Java 11 and later the {@link #factory() factories} create a transport on
+ * {@code java.net.http.HttpClient}, which negotiates HTTP/2 and multiplexes calls over a connection,
+ * and runs on the given executor. Otherwise they create this transport on
+ * {@code java.net.HttpURLConnection}: blocking calls run on the given executor, so on a JVM
+ * supporting them it can be an executor of virtual threads, e.g.
+ * {@code Executors.newVirtualThreadPerTaskExecutor()}. Connections are kept alive and pooled by the
+ * JDK.
+ *
+ * <p>Neither caches resolved addresses, a {@link Transport.Config#getDnsTtlNanos() DNS TTL} is
+ * rejected. Only the {@code HttpClient} transport shards.
+ *
+ * @author Mike Shauneu
+ */
+public class JdkTransport implements Transport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HarmonyClient.class);
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    /** {@code HttpClientTransport(Transport.Config, ExecutorService)}, {@code null} before Java 11. */
+    private static final Constructor<?> HTTP_CLIENT_TRANSPORT = httpClientTransport();
+
+    private final Transport.Authorizer authorizer;
+
+    private final ExecutorService executor;
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    private final TlsSocketFactory tlsSocketFactory;
+
+    /**
+     * Constructor of the {@code HttpURLConnection} transport, regardless of the Java version.
+     *
+     * @param config client settings
+     * @param executor executor to run blocking calls on
+     * @throws UnsupportedOperationException if the settings ask for DNS caching or shards
+     */
+    public JdkTransport(Transport.Config config, ExecutorService executor) {
+        if (config.getDnsTtlNanos() > 0) {
+            throw new UnsupportedOperationException("JdkTransport does not cache resolved addresses");
+        }
+        if (config.getShards() > 1) {
+            throw new UnsupportedOperationException("JdkTransport on HttpURLConnection does not shard");
+        }
+        this.authorizer = config.getAuthorizer();
+        this.executor = executor;
+        this.connectTimeoutMillis = (int) Math.min(config.getConnectTimeoutMillis(), Integer.MAX_VALUE);
+        this.readTimeoutMillis = (int) Math.min(config.getReadTimeoutMillis(), Integer.MAX_VALUE);
+        this.tlsSocketFactory = new TlsSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory(), config);
+    }
+
+    private static Constructor<?> httpClientTransport() {
+        try {
+            Class.forName("java.net.http.HttpClient", false, JdkTransport.class.getClassLoader());
+            return Class.forName("com.oath.client.harmony.HttpClientTransport", false, JdkTransport.class.getClassLoader())
+                    .getDeclaredConstructor(Transport.Config.class, ExecutorService.class);
+        } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code true} if the factories create the {@code java.net.http.HttpClient} transport
+     */
+    public static boolean isHttpClientAvailable() {
+        return HTTP_CLIENT_TRANSPORT != null;
+    }
+
+    /**
+     * @return {@link Transport.Factory} of this transport running calls on a cached pool of daemon threads
+     */
+    public static Transport.Factory factory() {
+        AtomicInteger threads = new AtomicInteger();
+        return config -> create(config, Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "HarmonyClient JdkTransport " + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * @param executor executor to run calls on
+     * @return {@link Transport.Factory} of this transport
+     */
+    public static Transport.Factory factory(ExecutorService executor) {
+        return config -> create(config, executor);
+    }
+
+    private static Transport create(Transport.Config config, ExecutorService executor) {
+        if (HTTP_CLIENT_TRANSPORT == null) {
+            return new JdkTransport(config, executor);
+        }
+        try {
+            return (Transport) HTTP_CLIENT_TRANSPORT.newInstance(config, executor);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        if (!request.isAuthenticated()) {
+            return execute(request, null);
+        }
+        TransportResponse response = execute(request, authorizer.authorization(false));
+        if (response.getCode() == HttpURLConnection.HTTP_FORBIDDEN) {
+            response.close();
+            response = execute(request, authorizer.authorization(true));
+        }
+        return response;
+    }
+
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+        CompletableFuture<TransportResponse> futureResponse = new CompletableFuture<>();
+        Object queueWait = HarmonyEvents.beginQueueWait("JdkTransport Executor");
+        Future<?> task = executor.submit(() -> {
+            HarmonyEvents.commitQueueWait(queueWait);
+            if (futureResponse.isDone()) {
+                return;
+            }
+            try {
+                TransportResponse response = execute(request);
+                if (!futureResponse.complete(response)) {
+                    response.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                futureResponse.completeExceptionally(e);
+            }
+        });
+        futureResponse.whenComplete((r, e) -> {
+            if (futureResponse.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return futureResponse;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private TransportResponse execute(TransportRequest request, String authorization) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+        if (connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(tlsSocketFactory);
+        }
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestMethod(request.getMethod());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (authorization != null) {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+        byte[] body = request.getBody();
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", request.getContentType());
+            if (request.isGzip()) {
+                // compressed while written, so the length is not known up front
+                connection.setRequestProperty("Content-Encoding", "gzip");
+                connection.setChunkedStreamingMode(0);
+            } else {
+                connection.setFixedLengthStreamingMode(body.length);
+            }
+        }
+        try {
+            connection.connect();
+        } catch (SocketTimeoutException e) {
+            throw Endpoints.connectTimeout(e);
+        }
+        if (body != null) {
+            try (OutputStream os = request.isGzip()
+                    ? new GZIPOutputStream(connection.getOutputStream(), GZIP_BUFFER_SIZE)
+                    : connection.getOutputStream()) {
+                os.write(body);
+            }
+        }
+
+        int code = connection.getResponseCode();
+        LOGGER.debug("{} {} {} ({}ms)", code, request.getMethod(), request.getUrl(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+                headers.put(header.getKey(), header.getValue().get(header.getValue().size() - 1));
+            }
+        }
+        InputStream stream = code >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream();
+        return new TransportResponse(code, headers, connection.getContentLengthLong(), drainOnClose(stream));
+    }
+
+    /**
+     * @return given response body draining itself when closed, so that the connection can be
+     *         reused, {@code null} if there is no body
+     */
+    static InputStream drainOnClose(InputStream stream) {
+        return stream == null ? null : new FilterInputStream(stream) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                byte[] buffer = new byte[512];
+                while (read(buffer) >= 0) {
+                    // skip
+                }
+                super.close();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.oath.client.harmony;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer.
+ *
+ * <p>Every slot carries a sequence number: producers claim a position with a CAS on the tail and
+ * publish the element by advancing the slot sequence, the consumer takes elements in position order
+ * and hands the slot back by advancing its sequence by the capacity.
+ *
+ * @author Mike Shauneu
+ */
+final class MpscRingBuffer<E> {
+
+    private final int mask;
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity capacity, rounded up to a power of two
+     */
+    MpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an element, safe to call from any thread.
+     *
+     * @param e element
+     * @return {@code false} if the buffer is full
+     */
+    boolean offer(E e) {
+        long pos = tail.get();
+        int i;
+        for (;;) {
+            i = (int) pos & mask;
+            long diff = sequences.get(i) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // the slot still holds the element of the previous lap
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        elements[i] = e;
+        sequences.lazySet(i, pos + 1);
+        return true;
+    }
+
+    /**
+     * Takes the next element, must be called from the consumer thread only.
+     *
+     * @return element or {@code null} if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long pos = head;
+        int i = (int) pos & mask;
+        if (sequences.get(i) != pos + 1) {
+            return null;
+        }
+        E e = (E) elements[i];
+        elements[i] = null;
+        sequences.lazySet(i, pos + elements.length);
+        head = pos + 1;
+        return e;
+    }
+
+    /**
+     * @return number of elements claimed but not yet taken, approximate under concurrent access
+     */
+    int size() {
+        return (int) Math.max(tail.get() - head, 0);
+    }
+
+    /**
+     * @return capacity
+     */
+    int capacity() {
+        return elements.length;
+    }
+
+}
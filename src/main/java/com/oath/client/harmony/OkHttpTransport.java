@@ -0,0 +1,498 @@
+package com.oath.client.harmony;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.SocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.CipherSuite;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.ConnectionSpec;
+import okhttp3.Dispatcher;
+import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.TlsVersion;
+import okhttp3.logging.HttpLoggingInterceptor;
+import okhttp3.logging.HttpLoggingInterceptor.Level;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Default {@link Transport} backed by OkHttp.
+ *
+ * <p>With {@link Transport.Config#getShards()} above one, calls are spread over as many
+ * {@code OkHttpClient}s, each with its own dispatcher and connection pool, so that the dispatcher
+ * monitor taken on every enqueue and completion is not shared by all calls. Requests with a shard
+ * key always go to the same shard, the others go round robin. Limits and statistics apply to all
+ * shards together, limits are split between shards and cannot be lower than their number.
+ *
+ * @author Mike Shauneu
+ */
+public class OkHttpTransport implements Transport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OkHttpTransport.class);
+
+    private static final HttpLoggingInterceptor
+			HTTP_LOGGER_DEBUG = new HttpLoggingInterceptor(LOGGER::debug).setLevel(Level.BODY),
+			HTTP_LOGGER_INFO = new HttpLoggingInterceptor(LOGGER::info).setLevel(Level.BASIC);
+
+    /** Replaced as a whole when timeouts change, the clients share dispatchers and pools. */
+    private volatile OkHttpClient[] shards;
+
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    /** Log level set at runtime, {@code null} to follow the logger configuration. */
+    private volatile HttpLoggingInterceptor httpLoggerOverride;
+
+    /**
+     * Constructor.
+     *
+     * @param config client settings
+     */
+    public OkHttpTransport(Transport.Config config) {
+        Transport.Authorizer authorizer = config.getAuthorizer();
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .socketFactory(new NoDelaySocketFactory())
+                .dns(config.getDnsTtlNanos() > 0 ? new CachingDns(Dns.SYSTEM, config.getDnsTtlNanos()) : Dns.SYSTEM)
+                .connectTimeout(config.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout(config.getReadTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .writeTimeout(config.getReadTimeoutMillis(), TimeUnit.MILLISECONDS)
+                .connectionSpecs(Arrays.asList(
+                        new ConnectionSpec.Builder(ConnectionSpec.MODERN_TLS)
+                            .tlsVersions(config.getTlsVersions().stream()
+                                    .map(TlsVersion::forJavaName).toArray(TlsVersion[]::new))
+                            .cipherSuites(config.getCipherSuites().stream()
+                                    .map(CipherSuite::forJavaName).toArray(CipherSuite[]::new))
+                            .build(),
+                        new ConnectionSpec.Builder(ConnectionSpec.CLEARTEXT)
+                            .build()
+                ))
+                .eventListener(CONNECT_PHASE)
+                .addInterceptor(chain -> {
+                    Object tag = chain.request().tag();
+                    if (!(tag instanceof Tag)) {
+                        return chain.proceed(chain.request());
+                    }
+                    HarmonyEvents.commitQueueWait(((Tag) tag).queueWait);
+                    if (!((Tag) tag).request.isAuthenticated()) {
+                        return chain.proceed(chain.request());
+                    }
+
+                    Response response = chain.proceed(chain.request().newBuilder()
+                        .header("Authorization", authorizer.authorization(false))
+                        .build()
+                    );
+                    if (response.code() == HttpURLConnection.HTTP_FORBIDDEN) {
+                        response.close();
+                        response = chain.proceed(chain.request().newBuilder()
+                            .header("Authorization", authorizer.authorization(true))
+                            .build()
+                        );
+                    }
+                    return response;
+                })
+                .addNetworkInterceptor(c -> {
+                	HttpLoggingInterceptor override = httpLoggerOverride;
+                	if (override != null) {
+                		return override.intercept(c);
+                	}
+                	return LOGGER.isDebugEnabled()
+                			? HTTP_LOGGER_DEBUG.intercept(c)
+                			: HTTP_LOGGER_INFO.intercept(c);
+                })
+                .build();
+
+        OkHttpClient[] shards = new OkHttpClient[Math.max(config.getShards(), 1)];
+        shards[0] = httpClient;
+        for (int i = 1; i < shards.length; i++) {
+            // shares interceptors, DNS and TLS settings
+            shards[i] = httpClient.newBuilder()
+                    .dispatcher(new Dispatcher())
+                    .connectionPool(new ConnectionPool())
+                    .build();
+        }
+        this.shards = shards;
+        if (shards.length > 1) {
+            // every shard allows at least one call
+            setMaxRequests(Math.max(httpClient.dispatcher().getMaxRequests(), shards.length));
+            setMaxRequestsPerHost(Math.max(httpClient.dispatcher().getMaxRequestsPerHost(), shards.length));
+        }
+    }
+
+    /**
+     * @return {@link Transport.Factory} of this transport
+     */
+    public static Transport.Factory factory() {
+        return OkHttpTransport::new;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        Call call = shard(request).newCall(request(request, null));
+        try {
+            return response(call.execute());
+        } catch (IOException e) {
+            throw failure(call, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+        CompletableFuture<TransportResponse> futureResponse = new CompletableFuture<>();
+        Call call = shard(request).newCall(request(request, HarmonyEvents.beginQueueWait("OkHttp Dispatcher")));
+        call.enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (!futureResponse.complete(response(response))) {
+                    response.close();
+                }
+            }
+            @Override
+            public void onFailure(Call call, IOException e) {
+                futureResponse.completeExceptionally(failure(call, e));
+            }
+        });
+        futureResponse.whenComplete((r, e) -> {
+            if (futureResponse.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return futureResponse;
+    }
+
+    @Override
+    public int getQueuedCalls() {
+        int queued = 0;
+        for (OkHttpClient shard : shards) {
+            queued += shard.dispatcher().queuedCallsCount();
+        }
+        return queued;
+    }
+
+    @Override
+    public int getRunningCalls() {
+        int running = 0;
+        for (OkHttpClient shard : shards) {
+            running += shard.dispatcher().runningCallsCount();
+        }
+        return running;
+    }
+
+    @Override
+    public int getConnectionCount() {
+        int connections = 0;
+        for (OkHttpClient shard : shards) {
+            connections += shard.connectionPool().connectionCount();
+        }
+        return connections;
+    }
+
+    @Override
+    public int getIdleConnectionCount() {
+        int connections = 0;
+        for (OkHttpClient shard : shards) {
+            connections += shard.connectionPool().idleConnectionCount();
+        }
+        return connections;
+    }
+
+    @Override
+    public int getMaxRequests() {
+        int maxRequests = 0;
+        for (OkHttpClient shard : shards) {
+            maxRequests += shard.dispatcher().getMaxRequests();
+        }
+        return maxRequests;
+    }
+
+    @Override
+    public void setMaxRequests(int maxRequests) {
+        // queued calls are promoted if the limit grew, running ones are left alone
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].dispatcher().setMaxRequests(share(maxRequests, i));
+        }
+    }
+
+    @Override
+    public int getMaxRequestsPerHost() {
+        int maxRequestsPerHost = 0;
+        for (OkHttpClient shard : shards) {
+            maxRequestsPerHost += shard.dispatcher().getMaxRequestsPerHost();
+        }
+        return maxRequestsPerHost;
+    }
+
+    @Override
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].dispatcher().setMaxRequestsPerHost(share(maxRequestsPerHost, i));
+        }
+    }
+
+    /**
+     * @return share of a limit for the i-th shard, the shares add up to the limit
+     */
+    private int share(int limit, int i) {
+        int n = shards.length;
+        if (limit < n) {
+            // a dispatcher runs at least one call
+            throw new IllegalArgumentException("max < " + n + " shards: " + limit);
+        }
+        return limit / n + (i < limit % n ? 1 : 0);
+    }
+
+    @Override
+    public long getConnectTimeoutMillis() {
+        return shards[0].connectTimeoutMillis();
+    }
+
+    @Override
+    public synchronized void setConnectTimeoutMillis(long connectTimeoutMillis) {
+        retime(connectTimeoutMillis, shards[0].readTimeoutMillis());
+    }
+
+    @Override
+    public long getReadTimeoutMillis() {
+        return shards[0].readTimeoutMillis();
+    }
+
+    @Override
+    public synchronized void setReadTimeoutMillis(long readTimeoutMillis) {
+        retime(shards[0].connectTimeoutMillis(), readTimeoutMillis);
+    }
+
+    /**
+     * Swaps in clients with given timeouts. Built from the current ones, they share dispatchers,
+     * connection pools and interceptors, so calls in flight keep their timeouts and connections.
+     */
+    private void retime(long connectTimeoutMillis, long readTimeoutMillis) {
+        if (connectTimeoutMillis < 1 || readTimeoutMillis < 1) {
+            throw new IllegalArgumentException("timeout < 1ms");
+        }
+        OkHttpClient[] retimed = new OkHttpClient[shards.length];
+        for (int i = 0; i < retimed.length; i++) {
+            retimed[i] = shards[i].newBuilder()
+                    .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .writeTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+        shards = retimed;
+    }
+
+    @Override
+    public String getLogLevel() {
+        HttpLoggingInterceptor override = httpLoggerOverride;
+        if (override != null) {
+            return override.getLevel().name();
+        }
+        return (LOGGER.isDebugEnabled() ? HTTP_LOGGER_DEBUG : HTTP_LOGGER_INFO).getLevel().name();
+    }
+
+    @Override
+    public void setLogLevel(String logLevel) {
+        // logged at INFO whatever the level, so the logger has to be enabled for INFO
+        httpLoggerOverride = logLevel == null ? null
+                : new HttpLoggingInterceptor(LOGGER::info).setLevel(Level.valueOf(logLevel.toUpperCase()));
+    }
+
+    @Override
+    public void close() {
+        for (OkHttpClient shard : shards) {
+            shard.dispatcher().executorService().shutdown();
+            shard.connectionPool().evictAll();
+        }
+    }
+
+    private OkHttpClient shard(TransportRequest request) {
+        OkHttpClient[] shards = this.shards;
+        if (shards.length == 1) {
+            return shards[0];
+        }
+        String key = request.getShardKey();
+        int i = key == null ? nextShard.getAndIncrement() : spread(key.hashCode());
+        return shards[Math.floorMod(i, shards.length)];
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static Request request(TransportRequest request, Object queueWait) {
+        Request.Builder builder = new Request.Builder()
+                .url(request.getUrl())
+                .tag(new Tag(request, queueWait));
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        RequestBody body = null;
+        if (request.getBody() != null) {
+            MediaType contentType = MediaType.parse(request.getContentType());
+            if (request.isGzip()) {
+                builder.header("Content-Encoding", "gzip");
+                body = new GzipRequestBody(contentType, request.getBody());
+            } else {
+                body = RequestBody.create(contentType, request.getBody());
+            }
+        }
+        return builder.method(request.getMethod(), body).build();
+    }
+
+    /**
+     * Body compressed while written to the connection, sent chunked as its length is not known
+     * up front.
+     */
+    private static final class GzipRequestBody extends RequestBody {
+
+        private final MediaType contentType;
+        private final byte[] content;
+
+        GzipRequestBody(MediaType contentType, byte[] content) {
+            this.contentType = contentType;
+            this.content = content;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return contentType;
+        }
+
+        @Override
+        public long contentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+            gzipSink.write(content);
+            gzipSink.close();
+        }
+    }
+
+    /**
+     * A connect timeout is a {@link SocketTimeoutException} like a read timeout, it is told apart
+     * by the connect phase events of the call.
+     */
+    private static IOException failure(Call call, IOException e) {
+        Object tag = call.request().tag();
+        if (e instanceof SocketTimeoutException && tag instanceof Tag
+                && ((Tag) tag).connectFailed && !((Tag) tag).connected) {
+            return Endpoints.connectTimeout(e);
+        }
+        return e;
+    }
+
+    /**
+     * Records on the request tag whether the call failed to connect before it got a connection.
+     */
+    private static final EventListener CONNECT_PHASE = new EventListener() {
+        @Override
+        public void connectFailed(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol,
+                IOException e) {
+            Object tag = call.request().tag();
+            if (tag instanceof Tag) {
+                ((Tag) tag).connectFailed = true;
+            }
+        }
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            Object tag = call.request().tag();
+            if (tag instanceof Tag) {
+                ((Tag) tag).connected = true;
+            }
+        }
+    };
+
+    private static TransportResponse response(Response response) {
+        Headers headers = response.headers();
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < headers.size(); i++) {
+            map.put(headers.name(i), headers.value(i));
+        }
+        ResponseBody body = response.body();
+        return new TransportResponse(response.code(), map, body.contentLength(), body.byteStream());
+    }
+
+    /**
+     * Disables Nagle's algorithm on call sockets: a body larger than a buffer segment is written in
+     * several pieces, and with delayed acknowledgement on the receiving side its last piece would
+     * wait up to 40ms for the previous ones to be acknowledged.
+     */
+    private static final class NoDelaySocketFactory extends SocketFactory {
+        private final SocketFactory delegate = SocketFactory.getDefault();
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return noDelay(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return noDelay(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return noDelay(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private static Socket noDelay(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+    }
+
+    /**
+     * OkHttp request tag.
+     */
+    private static class Tag {
+        final TransportRequest request;
+        final Object queueWait;
+        volatile boolean connectFailed;
+        volatile boolean connected;
+
+        Tag(TransportRequest request, Object queueWait) {
+            this.request = request;
+            this.queueWait = queueWait;
+        }
+    }
+
+}
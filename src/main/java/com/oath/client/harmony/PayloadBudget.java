@@ -0,0 +1,302 @@
+package com.oath.client.harmony;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget in bytes of serialized payloads waiting or in flight.
+ *
+ * <p>A payload is always admitted when nothing is in use, so that a payload larger than the budget
+ * does not starve. Acquiring is lock free, only {@link AdmissionPolicy#BLOCK}ed callers wait on the
+ * budget monitor. Deferred sends are queued up to a limit and run in order on a budget thread, never
+ * on the thread releasing the budget. They are serialized once first in line, so that the queue
+ * holds at most one payload besides those of the sends queued while it was empty.
+ *
+ * @author Mike Shauneu
+ */
+class PayloadBudget {
+
+    static final int DEFAULT_MAX_DEFERRED = 10_000;
+
+    private final long limit;
+
+    private final AdmissionPolicy policy;
+
+    private final int maxDeferred;
+
+    private final AtomicLong used = new AtomicLong();
+
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final Queue<Deferred> deferred = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger deferredCount = new AtomicInteger();
+
+    /** Bytes of the serialized payloads of deferred sends. */
+    private final AtomicLong deferredBytes = new AtomicLong();
+
+    /** Held by the one thread draining, or about to drain, the deferred sends. */
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /** Runs deferred sends, its thread exits when idle. */
+    private final ThreadPoolExecutor drainer;
+
+    PayloadBudget(long limit, AdmissionPolicy policy, int maxDeferred) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Payload budget must be positive");
+        }
+        if (maxDeferred < 0) {
+            throw new IllegalArgumentException("Maximum deferred sends must not be negative");
+        }
+        this.limit = limit;
+        this.policy = policy;
+        this.maxDeferred = maxDeferred;
+        this.drainer = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "harmony-budget");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.drainer.allowCoreThreadTimeOut(true);
+    }
+
+    long getLimit() {
+        return limit;
+    }
+
+    AdmissionPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return bytes of admitted payloads
+     */
+    long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * @return bytes of serialized payloads of deferred sends
+     */
+    long getDeferredBytes() {
+        return deferredBytes.get();
+    }
+
+    /**
+     * @return number of sends deferred until their payload is admitted
+     */
+    int getDeferred() {
+        return deferredCount.get();
+    }
+
+    /**
+     * @return {@code true} if the payload was admitted
+     */
+    boolean tryAcquire(long bytes) {
+        long prev;
+        do {
+            prev = used.get();
+            if (!fits(prev, bytes)) {
+                return false;
+            }
+        } while (!used.compareAndSet(prev, prev + bytes));
+        return true;
+    }
+
+    private boolean fits(long used, long bytes) {
+        return used == 0 || used + bytes <= limit;
+    }
+
+    /**
+     * Admits the payload, waiting for enough payloads to complete.
+     */
+    void acquire(long bytes) throws InterruptedException {
+        if (tryAcquire(bytes)) {
+            return;
+        }
+        Object queueWait = HarmonyEvents.beginQueueWait("Payload Budget");
+        waiters.incrementAndGet();
+        try {
+            synchronized (this) {
+                while (!tryAcquire(bytes)) {
+                    wait();
+                }
+            }
+        } finally {
+            waiters.decrementAndGet();
+            HarmonyEvents.commitQueueWait(queueWait);
+        }
+    }
+
+    /**
+     * Sends once the payload is admitted, right away if no other send is deferred and it is admitted
+     * now.
+     *
+     * @param send send to serialize and run
+     * @return {@code false} if too many sends are deferred already and the send was not queued
+     */
+    boolean acquireOrDefer(Send send) {
+        byte[] payload = null;
+        if (deferred.isEmpty()) {
+            payload = send.serialize();
+            if (payload == null) {
+                return true;
+            }
+            if (tryAcquire(payload.length)) {
+                send.send(payload);
+                return true;
+            }
+        }
+        if (deferredCount.incrementAndGet() > maxDeferred) {
+            deferredCount.decrementAndGet();
+            return false;
+        }
+        Deferred next = new Deferred(send);
+        if (payload != null) {
+            serialized(next, payload);
+        }
+        deferred.add(next);
+        // a release may have happened before the queueing
+        scheduleDrain();
+        return true;
+    }
+
+    void release(long bytes) {
+        used.addAndGet(-bytes);
+        if (waiters.get() > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Stops running deferred sends.
+     *
+     * @return sends still deferred
+     */
+    List<Send> close() {
+        drainer.shutdownNow();
+        List<Send> sends = new ArrayList<>();
+        Deferred next;
+        while ((next = deferred.poll()) != null) {
+            dequeued(next);
+            sends.add(next.send);
+        }
+        return sends;
+    }
+
+    private void dequeued(Deferred next) {
+        deferredCount.decrementAndGet();
+        synchronized (next) {
+            next.dequeued = true;
+            if (next.payload != null) {
+                deferredBytes.addAndGet(-next.payload.length);
+            }
+        }
+    }
+
+    private void serialized(Deferred next, byte[] payload) {
+        synchronized (next) {
+            next.payload = payload;
+            if (!next.dequeued) {
+                deferredBytes.addAndGet(payload.length);
+            }
+        }
+    }
+
+    private boolean canDrain() {
+        Deferred next = deferred.peek();
+        if (next == null) {
+            return false;
+        }
+        // not serialized yet, the drainer does that once there is room for anything
+        byte[] payload = next.payload;
+        return fits(used.get(), payload == null ? 1 : payload.length);
+    }
+
+    private void scheduleDrain() {
+        if (canDrain() && draining.compareAndSet(false, true)) {
+            try {
+                drainer.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // closed, deferred sends were handed back
+            }
+        }
+    }
+
+    private void drain() {
+        do {
+            try {
+                Deferred next;
+                while ((next = deferred.peek()) != null) {
+                    byte[] payload = next.payload;
+                    if (payload == null) {
+                        payload = next.send.serialize();
+                        if (payload == null) {
+                            // failed or cancelled
+                            if (deferred.remove(next)) {
+                                dequeued(next);
+                            }
+                            continue;
+                        }
+                        serialized(next, payload);
+                    }
+                    if (!tryAcquire(payload.length)) {
+                        break;
+                    }
+                    if (!deferred.remove(next)) {
+                        // handed back by close
+                        used.addAndGet(-payload.length);
+                        return;
+                    }
+                    dequeued(next);
+                    HarmonyEvents.commitQueueWait(next.queueWait);
+                    next.send.send(payload);
+                }
+            } finally {
+                draining.set(false);
+            }
+            // a release may have given up on draining while this thread held it
+        } while (canDrain() && draining.compareAndSet(false, true));
+    }
+
+    /**
+     * Send waiting for its payload to be admitted.
+     */
+    interface Send {
+
+        /**
+         * @return serialized payload, {@code null} if the send failed or was cancelled and is dropped
+         */
+        byte[] serialize();
+
+        /**
+         * @param payload admitted payload returned by {@link #serialize()}
+         */
+        void send(byte[] payload);
+    }
+
+    private static final class Deferred {
+        final Send send;
+        final Object queueWait = HarmonyEvents.beginQueueWait("Payload Budget Deferred");
+        /** Set by the drainer, or on queueing if serialized to try admitting right away. */
+        volatile byte[] payload;
+        /** Guarded by this, {@code true} once taken off the queue. */
+        boolean dequeued;
+
+        Deferred(Send send) {
+            this.send = send;
+        }
+    }
+
+}
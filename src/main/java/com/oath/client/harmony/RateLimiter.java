@@ -0,0 +1,85 @@
+package com.oath.client.harmony;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free limiter spacing sends evenly at a rate changeable at runtime.
+ *
+ * <p>Callers reserve the next free slot and get the delay until it rather than wait, so that the
+ * client can hold the send in its timing wheel instead of blocking a thread.
+ *
+ * @author Mike Shauneu
+ */
+final class RateLimiter {
+
+    /** Time between sends, {@code 0} when unlimited. */
+    private volatile long intervalNanos;
+
+    /** Earliest time of the next send. */
+    private final AtomicLong next = new AtomicLong(System.nanoTime());
+
+    /**
+     * @return sends per second, {@code 0} when unlimited
+     */
+    double getRate() {
+        long interval = intervalNanos;
+        return interval == 0 ? 0 : (double) TimeUnit.SECONDS.toNanos(1) / interval;
+    }
+
+    /**
+     * Changes the rate, sends already reserved keep their slot.
+     *
+     * @param sendsPerSecond sends per second, {@code 0} for unlimited
+     */
+    void setRate(double sendsPerSecond) {
+        if (sendsPerSecond < 0 || Double.isNaN(sendsPerSecond)) {
+            throw new IllegalArgumentException("rate must not be negative");
+        }
+        intervalNanos = sendsPerSecond == 0 ? 0 : Math.max((long) (TimeUnit.SECONDS.toNanos(1) / sendsPerSecond), 1);
+    }
+
+    /**
+     * Reserves a slot.
+     *
+     * @return nanoseconds to wait before sending, {@code 0} to send right away
+     */
+    long reserve() {
+        long interval = intervalNanos;
+        if (interval == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        for (;;) {
+            long n = next.get();
+            // an idle limiter does not accumulate a burst
+            long slot = n - now > 0 ? n : now;
+            if (next.compareAndSet(n, slot + interval)) {
+                return slot - now;
+            }
+        }
+    }
+
+    /**
+     * Reserves a slot if one is free now.
+     *
+     * @return {@code false} if no slot was reserved as the send would have to wait
+     */
+    boolean tryReserve() {
+        long interval = intervalNanos;
+        if (interval == 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        for (;;) {
+            long n = next.get();
+            if (n - now > 0) {
+                return false;
+            }
+            if (next.compareAndSet(n, now + interval)) {
+                return true;
+            }
+        }
+    }
+
+}
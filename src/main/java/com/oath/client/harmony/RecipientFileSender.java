@@ -0,0 +1,522 @@
+package com.oath.client.harmony;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Streams a campaign audience file into {@link HarmonyClient#sendMail(String, SendMailRequest)}
+ * calls of up to {@value SendMailValidator#MAX_RECIPIENTS} recipients, with memory bounded by the
+ * number of sends in flight rather than by the file size.
+ *
+ * <p>The file is split into chunks ending at line boundaries. Chunks are memory mapped and parsed
+ * in parallel, each one feeding its rows straight into sends. Supported formats:
+ * <ul>
+ * <li>{@link Format#CSV} - header line naming the columns, {@code emailAddress} is mandatory,
+ * {@code customerKey} defaults to the email address, every other column becomes a
+ * {@code String} attribute. Fields may be quoted, quoted fields must not span lines.</li>
+ * <li>{@link Format#JSONL} - one JSON {@link SendMailRequest.Recipient} per line.</li>
+ * </ul>
+ *
+ * <p>The checkpoint listener receives growing byte offsets such that every row before the offset
+ * has been sent (or reported to the failure listener). Passing the last checkpoint to
+ * {@link #send(Path, long)} resumes an interrupted run.
+ *
+ * @author Mike Shauneu
+ */
+public class RecipientFileSender {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecipientFileSender.class);
+
+    private static final ObjectReader RECIPIENT_READER = new ObjectMapper().readerFor(SendMailRequest.Recipient.class);
+
+    /**
+     * Audience file format.
+     */
+    public enum Format {
+        CSV, JSONL;
+
+        /**
+         * @param file file
+         * @return format guessed from the file extension
+         */
+        public static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            return name.endsWith(".jsonl") || name.endsWith(".json") || name.endsWith(".ndjson") ? JSONL : CSV;
+        }
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static class Result {
+        private final long rows;
+        private final long skippedRows;
+        private final long sends;
+        private final long failedSends;
+        private final long offset;
+
+        Result(long rows, long skippedRows, long sends, long failedSends, long offset) {
+            this.rows = rows;
+            this.skippedRows = skippedRows;
+            this.sends = sends;
+            this.failedSends = failedSends;
+            this.offset = offset;
+        }
+
+        /**
+         * @return rows sent
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return malformed rows skipped
+         */
+        public long getSkippedRows() {
+            return skippedRows;
+        }
+
+        /**
+         * @return {@code sendMail} calls made
+         */
+        public long getSends() {
+            return sends;
+        }
+
+        /**
+         * @return {@code sendMail} calls failed
+         */
+        public long getFailedSends() {
+            return failedSends;
+        }
+
+        /**
+         * @return offset the run stopped at, the file size when complete
+         */
+        public long getOffset() {
+            return offset;
+        }
+    }
+
+    private final HarmonyClient client;
+    private final String campaign;
+    private final String messageId;
+    private final List<SendMailRequest.Attribute> defaultAttributes;
+    private final Format format;
+    private final int chunkSize;
+    private final int parallelism;
+    private final int maxInFlight;
+    private final LongConsumer checkpointListener;
+    private final BiConsumer<SendMailRequest, Throwable> failureListener;
+
+    RecipientFileSender(Builder builder) {
+        this.client = Objects.requireNonNull(builder.client);
+        this.campaign = Objects.requireNonNull(builder.campaign);
+        this.messageId = Objects.requireNonNull(builder.messageId);
+        this.defaultAttributes = builder.defaultAttributes;
+        this.format = builder.format;
+        this.chunkSize = builder.chunkSize;
+        this.parallelism = builder.parallelism;
+        this.maxInFlight = builder.maxInFlight;
+        this.checkpointListener = builder.checkpointListener;
+        this.failureListener = builder.failureListener;
+    }
+
+    /**
+     * Sends the whole file.
+     *
+     * @param file audience file
+     * @return outcome
+     * @throws IOException if the file cannot be read
+     */
+    public Result send(Path file) throws IOException {
+        return send(file, 0);
+    }
+
+    /**
+     * Sends the file starting at given offset, blocking until every send completed.
+     *
+     * @param file audience file
+     * @param offset {@code 0} or a checkpoint of a previous run
+     * @return outcome
+     * @throws IOException if the file cannot be read
+     */
+    public Result send(Path file, long offset) throws IOException {
+        Format fileFormat = format != null ? format : Format.of(file);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "HarmonyClient RecipientFileSender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            String[] header = null;
+            long start = offset;
+            if (fileFormat == Format.CSV) {
+                long headerEnd = lineEnd(channel, 0, size);
+                ByteBuffer buffer = ByteBuffer.allocate((int) headerEnd);
+                channel.read(buffer, 0);
+                header = parseCsv(new String(buffer.array(), StandardCharsets.UTF_8).replace("\uFEFF", ""));
+                start = Math.max(offset, headerEnd);
+            }
+
+            List<long[]> chunks = new ArrayList<>();
+            for (long chunkStart = start; chunkStart < size; ) {
+                long chunkEnd = lineEnd(channel, Math.min(chunkStart + chunkSize, size) - 1, size);
+                chunks.add(new long[] { chunkStart, chunkEnd });
+                chunkStart = chunkEnd;
+            }
+
+            Run run = new Run(chunks, start, fileFormat, header);
+            for (int i = 0; i < chunks.size(); i++) {
+                int chunk = i;
+                executor.execute(() -> run.parse(channel, chunk));
+            }
+            try {
+                run.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (run.failure.get() != null) {
+                throw run.failure.get();
+            }
+            return new Result(run.rows.sum(), run.skippedRows.sum(), run.sends.sum(), run.failedSends.sum(), run.checkpoint);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return offset just after the end of the line containing given position
+     */
+    private static long lineEnd(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        for (long pos = position; pos < size; ) {
+            buffer.clear();
+            int read = channel.read(buffer, pos);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += read;
+        }
+        return size;
+    }
+
+    static String[] parseCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c != '\r' && c != '\n') {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * State of a single {@link #send(Path, long)} run.
+     */
+    private class Run {
+        final List<long[]> chunks;
+        final Format format;
+        final String[] header;
+        final int emailColumn;
+        final int customerKeyColumn;
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        final AtomicInteger[] pending;
+        final boolean[] completed;
+        final CountDownLatch done;
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        final LongAdder rows = new LongAdder();
+        final LongAdder skippedRows = new LongAdder();
+        final LongAdder sends = new LongAdder();
+        final LongAdder failedSends = new LongAdder();
+        int completedChunks;
+        long checkpoint;
+
+        Run(List<long[]> chunks, long start, Format format, String[] header) throws IOException {
+            this.chunks = chunks;
+            this.format = format;
+            this.header = header;
+            this.pending = new AtomicInteger[chunks.size()];
+            this.completed = new boolean[chunks.size()];
+            this.done = new CountDownLatch(chunks.size());
+            this.checkpoint = start;
+            int email = -1;
+            int customerKey = -1;
+            if (header != null) {
+                for (int i = 0; i < header.length; i++) {
+                    if ("emailAddress".equalsIgnoreCase(header[i].trim()) || "email".equalsIgnoreCase(header[i].trim())) {
+                        email = i;
+                    } else if ("customerKey".equalsIgnoreCase(header[i].trim())) {
+                        customerKey = i;
+                    }
+                }
+                if (email < 0) {
+                    throw new IOException("CSV header has no emailAddress column");
+                }
+            }
+            this.emailColumn = email;
+            this.customerKeyColumn = customerKey;
+            for (int i = 0; i < pending.length; i++) {
+                // released once the chunk is fully parsed
+                pending[i] = new AtomicInteger(1);
+            }
+        }
+
+        void parse(FileChannel channel, int chunk) {
+            long chunkStart = chunks.get(chunk)[0];
+            long chunkEnd = chunks.get(chunk)[1];
+            try {
+                if (failure.get() == null) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkEnd - chunkStart);
+                    List<SendMailRequest.Recipient> batch = new ArrayList<>(SendMailValidator.MAX_RECIPIENTS);
+                    byte[] line = new byte[256];
+                    int length = 0;
+                    while (buffer.hasRemaining()) {
+                        byte b = buffer.get();
+                        if (b != '\n') {
+                            if (length == line.length) {
+                                line = Arrays.copyOf(line, length * 2);
+                            }
+                            line[length++] = b;
+                        }
+                        if (b == '\n' || !buffer.hasRemaining()) {
+                            SendMailRequest.Recipient recipient = parseRow(new String(line, 0, length, StandardCharsets.UTF_8),
+                                    chunkStart + buffer.position());
+                            length = 0;
+                            if (recipient != null) {
+                                batch.add(recipient);
+                                if (batch.size() == SendMailValidator.MAX_RECIPIENTS) {
+                                    send(chunk, batch);
+                                    batch = new ArrayList<>(SendMailValidator.MAX_RECIPIENTS);
+                                }
+                            }
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        send(chunk, batch);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, new InterruptedIOException());
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                release(chunk);
+            }
+        }
+
+        private SendMailRequest.Recipient parseRow(String line, long offset) {
+            if (line.trim().isEmpty()) {
+                return null;
+            }
+            try {
+                if (format == Format.JSONL) {
+                    return RECIPIENT_READER.readValue(line);
+                }
+                String[] fields = parseCsv(line);
+                if (fields.length != header.length) {
+                    throw new IOException(fields.length + " fields, " + header.length + " expected");
+                }
+                List<SendMailRequest.Attribute> attributes = new ArrayList<>(fields.length);
+                for (int i = 0; i < fields.length; i++) {
+                    if (i != emailColumn && i != customerKeyColumn) {
+                        attributes.add(new SendMailRequest.Attribute(header[i].trim(), fields[i]));
+                    }
+                }
+                String email = fields[emailColumn];
+                return new SendMailRequest.Recipient(email,
+                        customerKeyColumn < 0 ? email : fields[customerKeyColumn], attributes);
+            } catch (IOException e) {
+                skippedRows.increment();
+                LOGGER.warn("HARMONY: Skipping malformed row ending at offset {}: {}", offset, e.getMessage());
+                return null;
+            }
+        }
+
+        private void send(int chunk, List<SendMailRequest.Recipient> batch) throws InterruptedException {
+            Object queueWait = HarmonyEvents.beginQueueWait("RecipientFileSender In-Flight");
+            inFlight.acquire();
+            HarmonyEvents.commitQueueWait(queueWait);
+            pending[chunk].incrementAndGet();
+            rows.add(batch.size());
+            sends.increment();
+            SendMailRequest request = new SendMailRequest(messageId, batch, defaultAttributes);
+            CompletableFuture<SendMailResponse> futureResponse;
+            try {
+                futureResponse = client.sendMail(campaign, request);
+            } catch (RuntimeException e) {
+                futureResponse = new CompletableFuture<>();
+                futureResponse.completeExceptionally(e);
+            }
+            futureResponse.whenComplete((response, e) -> {
+                if (e != null) {
+                    failedSends.increment();
+                    if (failureListener != null) {
+                        failureListener.accept(request, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    }
+                }
+                inFlight.release();
+                release(chunk);
+            });
+        }
+
+        private void release(int chunk) {
+            if (pending[chunk].decrementAndGet() != 0) {
+                return;
+            }
+            synchronized (this) {
+                completed[chunk] = true;
+                int before = completedChunks;
+                // chunks skipped after a read failure must not be checkpointed
+                while (failure.get() == null && completedChunks < completed.length && completed[completedChunks]) {
+                    checkpoint = chunks.get(completedChunks)[1];
+                    completedChunks++;
+                }
+                if (completedChunks > before && checkpointListener != null) {
+                    checkpointListener.accept(checkpoint);
+                }
+            }
+            done.countDown();
+        }
+    }
+
+    public static class Builder {
+        final HarmonyClient client;
+        String campaign;
+        String messageId;
+        List<SendMailRequest.Attribute> defaultAttributes;
+        Format format;
+        int chunkSize = 8 * 1024 * 1024;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int maxInFlight = 256;
+        LongConsumer checkpointListener;
+        BiConsumer<SendMailRequest, Throwable> failureListener;
+
+        public Builder(HarmonyClient client) {
+            this.client = client;
+        }
+        public Builder withCampaign(String campaign) {
+            this.campaign = campaign;
+            return this;
+        }
+        public Builder withMessageId(String messageId) {
+            this.messageId = messageId;
+            return this;
+        }
+        public Builder withDefaultAttributes(List<SendMailRequest.Attribute> defaultAttributes) {
+            this.defaultAttributes = defaultAttributes;
+            return this;
+        }
+        /**
+         * File format, guessed from the file extension by default.
+         */
+        public Builder withFormat(Format format) {
+            this.format = format;
+            return this;
+        }
+        /**
+         * Approximate size in bytes of the chunks parsed in parallel, 8MB by default.
+         */
+        public Builder withChunkSize(int chunkSize) {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("chunkSize must be positive");
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+        /**
+         * Number of chunks parsed in parallel, number of processors by default.
+         */
+        public Builder withParallelism(int parallelism) {
+            if (parallelism <= 0) {
+                throw new IllegalArgumentException("parallelism must be positive");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+        /**
+         * Maximum number of sends in flight, 256 by default. Bounds the memory used by a run.
+         */
+        public Builder withMaxInFlight(int maxInFlight) {
+            if (maxInFlight <= 0) {
+                throw new IllegalArgumentException("maxInFlight must be positive");
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+        /**
+         * Receives offsets to resume from, see {@link RecipientFileSender#send(Path, long)}.
+         */
+        public Builder withCheckpointListener(LongConsumer checkpointListener) {
+            this.checkpointListener = checkpointListener;
+            return this;
+        }
+        /**
+         * Receives failed sends with their failure.
+         */
+        public Builder withFailureListener(BiConsumer<SendMailRequest, Throwable> failureListener) {
+            this.failureListener = failureListener;
+            return this;
+        }
+        public RecipientFileSender build() {
+            return new RecipientFileSender(this);
+        }
+    }
+
+}
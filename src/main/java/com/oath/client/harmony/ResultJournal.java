@@ -0,0 +1,701 @@
+package com.oath.client.harmony;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Journal of send results for auditing, written off the calling thread.
+ *
+ * <p>{@link #append} only hands the result over to a background writer through a lock-free ring
+ * buffer, so it is cheap enough to call from transport threads; it waits only when the ring is
+ * full, and for a bounded time. If the writer dies the journal is marked failed and drops every
+ * result from then on. The writer appends results in batches to rolling files named
+ * {@code results-<sequence>.journal} in a compact binary format: every record is its length, the
+ * CRC32 of its payload and the payload. A new file is started on every open, so a torn record can
+ * only be the last one of a file and is skipped by {@link #replay(Path, Consumer)}.
+ *
+ * <p>Attach it with {@link HarmonyClient.Builder#withResultJournal(ResultJournal)}. The journal is
+ * not closed by the client, close it after the clients using it.
+ *
+ * @author Mike Shauneu
+ */
+public class ResultJournal implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultJournal.class);
+
+    private static final String PREFIX = "results-", SUFFIX = ".journal";
+
+    /** Header of a record: payload length and CRC32. */
+    private static final int HEADER = 8;
+
+    /** Upper bound of a record, anything larger is a corrupt length. */
+    private static final int MAX_RECORD = 1 << 20;
+
+    /** How long an append parks between attempts while the ring is full. */
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * Journaled result of a send.
+     */
+    public static final class Entry {
+        private final long timestamp;
+        private final String campaign;
+        private final String messageId;
+        private final String serviceTransactionId;
+        private final String deploymentId;
+        private final String resultCode;
+        private final int status;
+        private final String failure;
+        private final String message;
+
+        Entry(long timestamp, String campaign, String messageId, String serviceTransactionId,
+                String deploymentId, String resultCode, int status, String failure, String message) {
+            this.timestamp = timestamp;
+            this.campaign = campaign;
+            this.messageId = messageId;
+            this.serviceTransactionId = serviceTransactionId;
+            this.deploymentId = deploymentId;
+            this.resultCode = resultCode;
+            this.status = status;
+            this.failure = failure;
+            this.message = message;
+        }
+
+        /**
+         * @return completion time in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return Harmony campaign id
+         */
+        public String getCampaign() {
+            return campaign;
+        }
+
+        /**
+         * @return message id of the request
+         */
+        public String getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * @return Harmony transaction id, {@code null} on failure
+         */
+        public String getServiceTransactionId() {
+            return serviceTransactionId;
+        }
+
+        /**
+         * @return Harmony deployment id, {@code null} on failure
+         */
+        public String getDeploymentId() {
+            return deploymentId;
+        }
+
+        /**
+         * @return Harmony result code, {@code null} on failure
+         */
+        public String getResultCode() {
+            return resultCode;
+        }
+
+        /**
+         * @return HTTP status, {@code 0} if no response was received
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return failure category, or exception class name when the failure is not a
+         *         {@link SendMailException}, {@code null} on success
+         */
+        public String getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return failure message, {@code null} on success
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return {@code true} if the send succeeded
+         */
+        public boolean isSuccess() {
+            return failure == null;
+        }
+
+        @Override
+        public String toString() {
+            return timestamp + " " + campaign + " " + messageId + " " + status + " "
+                    + (failure == null ? resultCode + " " + serviceTransactionId : failure + " " + message);
+        }
+    }
+
+    private final Path directory;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final long fsyncIntervalNanos;
+    private volatile long lingerNanos;
+    private final long appendTimeoutNanos;
+    private final MpscRingBuffer<Entry> ring;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed;
+    /** Set once the writer stopped, results still handed over after that are dropped. */
+    private volatile boolean terminated;
+    /** Set if the writer died before the journal was closed. */
+    private volatile boolean failed;
+
+    // owned by the writer thread
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+    /** Results encoded into the batch, or being encoded. */
+    private int batched;
+    private FileChannel channel;
+    private long sequence;
+    private boolean dirty;
+    private long lastSync = System.nanoTime();
+
+    ResultJournal(Builder builder) throws IOException {
+        this.directory = Objects.requireNonNull(builder.directory);
+        this.maxFileSize = builder.maxFileSize;
+        this.maxFiles = builder.maxFiles;
+        this.fsyncIntervalNanos = builder.fsyncIntervalNanos;
+        this.lingerNanos = builder.lingerNanos;
+        this.appendTimeoutNanos = builder.appendTimeoutNanos;
+        this.ring = new MpscRingBuffer<>(builder.ringSize);
+
+        Files.createDirectories(directory);
+        List<Path> files = files(directory);
+        this.sequence = files.isEmpty() ? 0 : sequenceOf(files.get(files.size() - 1));
+        roll();
+
+        this.writer = new Thread(this::run, "harmony-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Journals the outcome of a send, arguments as passed to
+     * {@link java.util.concurrent.CompletableFuture#whenComplete}. Results appended after
+     * {@link #close()} or once the journal {@link #isFailed() failed}, larger than 1MB encoded, or
+     * still not handed over when the append timeout elapses, are dropped.
+     *
+     * @param campaign Harmony campaign id
+     * @param messageId message id of the request
+     * @param response response, {@code null} on failure
+     * @param failure failure, {@code null} on success
+     */
+    public void append(String campaign, String messageId, SendMailResponse response, Throwable failure) {
+        if (closed || terminated) {
+            dropped.increment();
+            return;
+        }
+        Entry entry;
+        long now = System.currentTimeMillis();
+        Throwable e = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (e instanceof SendMailException) {
+            entry = new Entry(now, campaign, messageId, null, null, null, ((SendMailException) e).getHttpStatus(),
+                    ((SendMailException) e).getCategory().name(), e.getMessage());
+        } else if (e != null) {
+            entry = new Entry(now, campaign, messageId, null, null, null, 0, e.getClass().getSimpleName(), e.getMessage());
+        } else {
+            entry = new Entry(now, campaign, messageId, response.getServiceTransactionId(),
+                    response.getDeploymentId(), response.getResultCode(), 200, null, null);
+        }
+        long deadline = 0;
+        while (!ring.offer(entry)) {
+            long nanos = System.nanoTime();
+            if (deadline == 0) {
+                deadline = nanos + appendTimeoutNanos;
+            } else if (closed || terminated || nanos - deadline >= 0) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+        if (terminated) {
+            // closed after the check above, the writer is gone
+            dropLate();
+        }
+    }
+
+    /**
+     * @param unit unit of the result
+     * @return how long the writer lets results accumulate before writing a batch
+     */
+    public long getLinger(TimeUnit unit) {
+        return unit.convert(lingerNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Changes how long the writer lets results accumulate before writing a batch, from the next
+     * batch on.
+     *
+     * @param linger linger
+     * @param unit unit of linger
+     */
+    public void setLinger(long linger, TimeUnit unit) {
+        if (linger <= 0) {
+            throw new IllegalArgumentException("linger must be positive");
+        }
+        this.lingerNanos = unit.toNanos(linger);
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * @return results handed over but not yet written
+     */
+    public int getPending() {
+        return ring.size();
+    }
+
+    /**
+     * @return results written since the journal was opened
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * @return results dropped because of a write failure, a closed or failed journal, a full ring
+     *         or their size
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return {@code true} if the writer died, results are dropped from then on
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Writes the pending results and closes the current file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        terminated = true;
+        // handed over by appends which saw the journal open, after the writer's last poll
+        dropLate();
+    }
+
+    private synchronized void dropLate() {
+        while (ring.poll() != null) {
+            dropped.increment();
+        }
+    }
+
+    private void run() {
+        try {
+            for (;;) {
+                boolean closing = closed;
+                Entry entry;
+                while ((entry = ring.poll()) != null) {
+                    // counted before encoding, so that a writer failing on it counts it as dropped
+                    batched++;
+                    if (!encode(entry)) {
+                        batched--;
+                    } else if (batched % 1024 == 0) {
+                        flush();
+                    }
+                }
+                flush();
+                sync(false);
+                if (closing && ring.size() == 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, lingerNanos);
+            }
+        } catch (RuntimeException | Error e) {
+            LOGGER.error("HARMONY: Result journal writer {} failed, results are dropped", directory, e);
+            failed = true;
+            terminated = true;
+            // the batch being encoded is lost with the writer
+            dropped.add(batched);
+            dropLate();
+        } finally {
+            try {
+                sync(true);
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.error("HARMONY: Failed to close result journal {}", directory, e);
+            }
+        }
+    }
+
+    private void flush() {
+        int count = batched;
+        if (count == 0) {
+            return;
+        }
+        batch.flip();
+        try {
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            written.add(count);
+            dirty = true;
+            if (channel.position() >= maxFileSize) {
+                sync(true);
+                channel.close();
+                roll();
+            }
+        } catch (IOException e) {
+            dropped.add(count);
+            LOGGER.error("HARMONY: Failed to journal {} results to {}", count, directory, e);
+            try {
+                channel.close();
+                roll();
+            } catch (IOException ex) {
+                LOGGER.error("HARMONY: Failed to roll result journal {}", directory, ex);
+            }
+        } finally {
+            batch.clear();
+            batched = 0;
+        }
+    }
+
+    private void sync(boolean force) {
+        if (!dirty || fsyncIntervalNanos < 0 || !channel.isOpen()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (force || now - lastSync >= fsyncIntervalNanos) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                LOGGER.error("HARMONY: Failed to sync result journal {}", directory, e);
+            }
+            dirty = false;
+            lastSync = now;
+        }
+    }
+
+    private void roll() throws IOException {
+        sequence++;
+        channel = FileChannel.open(directory.resolve(String.format("%s%010d%s", PREFIX, sequence, SUFFIX)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        dirty = false;
+        if (maxFiles > 0) {
+            List<Path> files = files(directory);
+            for (int i = 0; i < files.size() - maxFiles; i++) {
+                Files.deleteIfExists(files.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if the record is too large to be replayed and was dropped
+     */
+    boolean encode(Entry entry) {
+        ensure(HEADER + 8 + 5);
+        int start = batch.position();
+        batch.position(start + HEADER);
+        batch.putLong(entry.timestamp);
+        putVarint(entry.status);
+        putString(entry.campaign);
+        putString(entry.messageId);
+        putString(entry.serviceTransactionId);
+        putString(entry.deploymentId);
+        putString(entry.resultCode);
+        putString(entry.failure);
+        putString(entry.message);
+        int length = batch.position() - start - HEADER;
+        if (length > MAX_RECORD) {
+            batch.position(start);
+            dropped.increment();
+            LOGGER.warn("HARMONY: Dropped result of {} {} of {} bytes from result journal {}", entry.campaign,
+                    entry.messageId, length, directory);
+            return false;
+        }
+        crc.reset();
+        crc.update(batch.array(), start + HEADER, length);
+        batch.putInt(start, length);
+        batch.putInt(start + 4, (int) crc.getValue());
+        return true;
+    }
+
+    private void putString(String s) {
+        if (s == null) {
+            putVarint(0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        ensure(5 + bytes.length);
+        putVarint(bytes.length + 1);
+        batch.put(bytes);
+    }
+
+    private void putVarint(int v) {
+        while ((v & ~0x7F) != 0) {
+            batch.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        batch.put((byte) v);
+    }
+
+    private void ensure(int bytes) {
+        if (batch.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.position() + bytes));
+            batch.flip();
+            grown.put(batch);
+            batch = grown;
+        }
+    }
+
+    /**
+     * Replays every intact result of the journal in given directory, oldest first. A torn or
+     * corrupt record ends its file.
+     *
+     * @param directory journal directory
+     * @param consumer receives results
+     * @throws IOException if the journal cannot be read
+     */
+    public static void replay(Path directory, Consumer<? super Entry> consumer) throws IOException {
+        for (Path file : files(directory)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+                CRC32 crc = new CRC32();
+                byte[] payload = new byte[256];
+                for (;;) {
+                    int length;
+                    int checksum;
+                    try {
+                        length = in.readInt();
+                        checksum = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (length <= 0 || length > MAX_RECORD) {
+                        LOGGER.warn("HARMONY: Corrupt record in result journal {}", file);
+                        break;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    }
+                    if (read(in, payload, length) < length) {
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        LOGGER.warn("HARMONY: Corrupt record in result journal {}", file);
+                        break;
+                    }
+                    consumer.accept(decode(ByteBuffer.wrap(payload, 0, length)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the results of the journal in given directory matching a filter, oldest first.
+     *
+     * @param directory journal directory
+     * @param filter filter, for example on campaign, message id or timestamp
+     * @return matching results
+     * @throws IOException if the journal cannot be read
+     */
+    public static List<Entry> query(Path directory, Predicate<? super Entry> filter) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        replay(directory, entry -> {
+            if (filter.test(entry)) {
+                entries.add(entry);
+            }
+        });
+        return entries;
+    }
+
+    private static int read(InputStream in, byte[] b, int length) throws IOException {
+        int n = 0;
+        while (n < length) {
+            int r = in.read(b, n, length - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        return n;
+    }
+
+    private static Entry decode(ByteBuffer buffer) {
+        long timestamp = buffer.getLong();
+        int status = getVarint(buffer);
+        return new Entry(timestamp, getString(buffer), getString(buffer), getString(buffer), getString(buffer),
+                getString(buffer), status, getString(buffer), getString(buffer));
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = getVarint(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int v = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = buffer.get();
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        // zero padded sequence, so names sort in write order
+        Collections.sort(files);
+        return files;
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    public static class Builder {
+        final Path directory;
+        int ringSize = 8192;
+        long maxFileSize = 64L * 1024 * 1024;
+        int maxFiles;
+        long fsyncIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+        long lingerNanos = TimeUnit.MILLISECONDS.toNanos(10);
+        long appendTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
+
+        public Builder(Path directory) {
+            this.directory = directory;
+        }
+        /**
+         * Number of results the ring buffer holds, 8192 by default. Appending waits while it is
+         * full, up to the append timeout.
+         */
+        public Builder withRingSize(int ringSize) {
+            if (ringSize <= 0) {
+                throw new IllegalArgumentException("ringSize must be positive");
+            }
+            this.ringSize = ringSize;
+            return this;
+        }
+        /**
+         * Size in bytes after which a new file is started, 64MB by default.
+         */
+        public Builder withMaxFileSize(long maxFileSize) {
+            if (maxFileSize <= 0) {
+                throw new IllegalArgumentException("maxFileSize must be positive");
+            }
+            this.maxFileSize = maxFileSize;
+            return this;
+        }
+        /**
+         * Number of files kept, oldest are deleted on rotation. All files are kept by default.
+         */
+        public Builder withMaxFiles(int maxFiles) {
+            this.maxFiles = maxFiles;
+            return this;
+        }
+        /**
+         * How often written results are forced to disk, once a second by default. {@code 0} forces
+         * every batch, a negative interval leaves it to the operating system.
+         */
+        public Builder withFsyncInterval(long interval, TimeUnit unit) {
+            this.fsyncIntervalNanos = interval < 0 ? -1 : unit.toNanos(interval);
+            return this;
+        }
+        /**
+         * How long the writer lets results accumulate before writing a batch, 10ms by default.
+         */
+        public Builder withLinger(long linger, TimeUnit unit) {
+            if (linger <= 0) {
+                throw new IllegalArgumentException("linger must be positive");
+            }
+            this.lingerNanos = unit.toNanos(linger);
+            return this;
+        }
+        /**
+         * How long appending waits for room in a full ring before the result is dropped, 1s by
+         * default.
+         */
+        public Builder withAppendTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout must not be negative");
+            }
+            this.appendTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+        /**
+         * Opens a new file in the directory, created if needed, and starts the writer.
+         *
+         * @throws IOException if the directory or the file cannot be created
+         */
+        public ResultJournal build() throws IOException {
+            return new ResultJournal(this);
+        }
+    }
+
+}
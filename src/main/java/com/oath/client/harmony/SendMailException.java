@@ -1,27 +1,177 @@
 package com.oath.client.harmony;
 
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
 /**
  * Represent an Exception related to sending message process.
  *
+ * <p>Every exception carries a {@link Category} so callers can tell retryable failures from
+ * permanent ones without matching messages, the HTTP status of the Harmony response (or {@code 0}
+ * when no response was received) and all error entries returned by Harmony.
+ *
  * @author Mike Shauneu
  */
 public class SendMailException extends RuntimeException {
 
     private static final long serialVersionUID = -1552751255604355489L;
 
+    /** Result codes of errors rejecting a recipient rather than the request. */
+    static final Set<String> RECIPIENT_RESULT_CODES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "INVALID_RECIPIENT", "INVALID_EMAIL_ADDRESS", "RECIPIENT_REJECTED", "RECIPIENT_SUPPRESSED")));
+
+    /**
+     * Failure category.
+     */
+    public enum Category {
+        /** Credentials were rejected, even after a token refresh. */
+        AUTH(false),
+        /** Harmony asked to slow down. */
+        THROTTLED(true),
+        /** Request was malformed or rejected as a whole. */
+        INVALID_REQUEST(false),
+        /** Request was well formed but one of the recipients was rejected. */
+        RECIPIENT_REJECTED(false),
+        /** Harmony failed to process the request. */
+        SERVER_ERROR(true),
+        /** No response was received: connect, DNS, TLS or I/O failure. */
+        TRANSPORT(true),
+        /** Rejected locally, the client is over its payload budget. */
+        OVERLOADED(true);
+
+        private final boolean retryable;
+
+        Category(boolean retryable) {
+            this.retryable = retryable;
+        }
+
+        /**
+         * @return {@code true} if the same request may succeed when sent again later
+         */
+        public boolean isRetryable() {
+            return retryable;
+        }
+    }
+
+    private final Category category;
+    private final int httpStatus;
+    private final List<SendMailResponse.Error> errors;
+
     public SendMailException() {
+        this(Category.SERVER_ERROR, 0, null, null, null, true);
     }
 
     public SendMailException(String message) {
-        super(message);
+        this(Category.SERVER_ERROR, 0, message, null, null, true);
     }
 
     public SendMailException(Throwable cause) {
-        super(cause);
+        this(categoryOf(cause), 0, cause == null ? null : cause.toString(), null, cause, true);
     }
 
     public SendMailException(String message, Throwable cause) {
-        super(message, cause);
+        this(categoryOf(cause), 0, message, null, cause, true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param category
+     *            failure category
+     * @param httpStatus
+     *            HTTP status of the Harmony response, {@code 0} if there was none
+     * @param message
+     *            detail message
+     * @param errors
+     *            error entries returned by Harmony, may be {@code null}
+     * @param cause
+     *            cause, may be {@code null}
+     */
+    public SendMailException(Category category, int httpStatus, String message,
+            List<SendMailResponse.Error> errors, Throwable cause) {
+        this(category, httpStatus, message, errors, cause, true);
+    }
+
+    /**
+     * Constructor allowing to skip stack trace capture, which dominates the cost of
+     * creating an exception on a hot error path.
+     */
+    SendMailException(Category category, int httpStatus, String message,
+            List<SendMailResponse.Error> errors, Throwable cause, boolean writableStackTrace) {
+        super(message, cause, writableStackTrace, writableStackTrace);
+        this.category = category;
+        this.httpStatus = httpStatus;
+        this.errors = errors == null ? Collections.emptyList() : Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * @return failure category
+     */
+    public Category getCategory() {
+        return category;
+    }
+
+    /**
+     * @return {@code true} if the same request may succeed when sent again later
+     */
+    public boolean isRetryable() {
+        return category.isRetryable();
+    }
+
+    /**
+     * @return HTTP status of the Harmony response, {@code 0} if no response was received
+     */
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    /**
+     * @return all error entries returned by Harmony, never {@code null}
+     */
+    public List<SendMailResponse.Error> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Classifies a non successful Harmony response. A client error is
+     * {@link Category#RECIPIENT_REJECTED} if one of the errors has a result code of
+     * {@link #RECIPIENT_RESULT_CODES}, messages are not matched.
+     *
+     * @param httpStatus
+     *            HTTP status
+     * @param errors
+     *            error entries returned by Harmony, may be {@code null}
+     * @return failure category
+     */
+    static Category categoryOf(int httpStatus, List<SendMailResponse.Error> errors) {
+        if (httpStatus == HttpURLConnection.HTTP_UNAUTHORIZED || httpStatus == HttpURLConnection.HTTP_FORBIDDEN) {
+            return Category.AUTH;
+        }
+        if (httpStatus == 429) {
+            return Category.THROTTLED;
+        }
+        if (httpStatus >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            return Category.SERVER_ERROR;
+        }
+        if (errors != null) {
+            for (SendMailResponse.Error error : errors) {
+                String resultCode = error.getResultCode();
+                if (resultCode != null && RECIPIENT_RESULT_CODES.contains(resultCode.toUpperCase(Locale.ROOT))) {
+                    return Category.RECIPIENT_REJECTED;
+                }
+            }
+        }
+        return Category.INVALID_REQUEST;
+    }
+
+    private static Category categoryOf(Throwable cause) {
+        return cause instanceof IOException ? Category.TRANSPORT : Category.SERVER_ERROR;
     }
 
 
@@ -17,6 +17,7 @@ public class SendMailRequest {
 	private String id;
 	private List<Recipient> recipients;
 	private List<Attribute> defaultAttributes;
+	private String clientRequestId;
 
 
 	/**
@@ -111,6 +112,28 @@ public class SendMailRequest {
 		this.defaultAttributes = defaultAttributes;
 	}
 
+    /**
+     * Client side id of the request, echoed in {@link SendMailResponse#getClientRequestId()} and
+     * used by Harmony to drop duplicates of the same request. When hedging is enabled and none is
+     * set, the client sends the request with an id generated for each send, this request is left
+     * unchanged.
+     *
+     * @return client request id
+     */
+	public String getClientRequestId() {
+		return clientRequestId;
+	}
+
+	/**
+	 * @see #getClientRequestId()
+	 *
+	 * @param clientRequestId
+	 *            client request id
+	 */
+	public void setClientRequestId(String clientRequestId) {
+		this.clientRequestId = clientRequestId;
+	}
+
 	@JsonInclude(Include.NON_NULL)
 	public static class Recipient {
 
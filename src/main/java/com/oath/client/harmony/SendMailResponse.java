@@ -1,5 +1,6 @@
 package com.oath.client.harmony;
 
+import java.io.Serializable;
 import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
@@ -187,9 +188,21 @@ public class SendMailResponse {
 	}
 
     @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class Error {
+    public static class Error implements Serializable {
+
+        private static final long serialVersionUID = 6020587064318519562L;
+
+        String resultCode;
     	String resultString;
 
+        public String getResultCode() {
+            return resultCode;
+        }
+
+        public void setResultCode(String resultCode) {
+            this.resultCode = resultCode;
+        }
+
     	public String getResultString() {
 			return resultString;
 		}
@@ -0,0 +1,271 @@
+package com.oath.client.harmony;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Pre-flight validation and normalization of {@link SendMailRequest}s, rejecting requests Harmony
+ * would reject anyway before they are serialized and sent.
+ *
+ * <p>Normalization trims and lowercases email addresses, trims customer keys and attribute names
+ * and drops {@code null} recipient attributes. Only the request itself is updated, recipients and
+ * attributes that change are replaced by normalized copies, so requests may share them, also when
+ * validated in parallel. Validation checks the message id, the number of
+ * recipients, email address syntax, presence of customer keys and attributes, and attribute values
+ * against their {@code attributeType}.
+ *
+ * <p>Instances are thread safe.
+ *
+ * @author Mike Shauneu
+ */
+public class SendMailValidator {
+
+    /** Maximum number of recipients per request accepted by Harmony. */
+    public static final int MAX_RECIPIENTS = 10;
+
+    private static final int BULK_THRESHOLD = 256;
+
+    private static final Pattern EMAIL = Pattern.compile("[^@\\s]+@[^@\\s.]+(\\.[^@\\s.]+)+");
+
+    private static final Map<String, Predicate<String>> ATTRIBUTE_TYPES = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    static {
+        ATTRIBUTE_TYPES.put("String", v -> true);
+        ATTRIBUTE_TYPES.put("Integer", v -> isNumber(v, true));
+        ATTRIBUTE_TYPES.put("Number", v -> isNumber(v, false));
+        ATTRIBUTE_TYPES.put("Decimal", v -> isNumber(v, false));
+        ATTRIBUTE_TYPES.put("Boolean", v -> "true".equalsIgnoreCase(v) || "false".equalsIgnoreCase(v));
+        ATTRIBUTE_TYPES.put("Date", v -> !v.trim().isEmpty());
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor, bulk validation runs on the common fork-join pool.
+     */
+    public SendMailValidator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param pool
+     *            pool to run bulk validation on
+     */
+    public SendMailValidator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Normalizes the request in place, without changing the recipients and attributes it refers
+     * to, and validates it.
+     *
+     * @param request
+     *            request
+     * @return problems found, empty if the request is valid
+     */
+    public List<String> validate(SendMailRequest request) {
+        List<String> problems = null;
+        if (request == null) {
+            return Collections.singletonList("request: missing");
+        }
+        if (isBlank(request.getId())) {
+            problems = problem(problems, "id: missing");
+        }
+
+        boolean hasDefaultAttributes = false;
+        if (request.getDefaultAttributes() != null) {
+            request.setDefaultAttributes(normalize(request.getDefaultAttributes()));
+            for (int i = 0; i < request.getDefaultAttributes().size(); i++) {
+                problems = validate(request.getDefaultAttributes().get(i), "defaultAttributes[" + i + "]", problems);
+            }
+            hasDefaultAttributes = !request.getDefaultAttributes().isEmpty();
+        }
+
+        List<SendMailRequest.Recipient> recipients = request.getRecipients();
+        if (recipients == null || recipients.isEmpty()) {
+            problems = problem(problems, "recipients: missing");
+        } else if (recipients.size() > MAX_RECIPIENTS) {
+            problems = problem(problems, "recipients: " + recipients.size() + " exceed the limit of " + MAX_RECIPIENTS);
+        } else {
+            List<SendMailRequest.Recipient> normalized = new ArrayList<>(recipients.size());
+            for (SendMailRequest.Recipient recipient : recipients) {
+                normalized.add(normalize(recipient));
+            }
+            request.setRecipients(normalized);
+            for (int i = 0; i < normalized.size(); i++) {
+                problems = validate(normalized.get(i), "recipients[" + i + "]", hasDefaultAttributes, problems);
+            }
+        }
+        return problems == null ? Collections.emptyList() : problems;
+    }
+
+    /**
+     * Normalizes and validates the requests in parallel.
+     *
+     * @param requests
+     *            requests
+     * @return failures by request index, empty if all requests are valid
+     */
+    public SortedMap<Integer, SendMailException> validateAll(List<SendMailRequest> requests) {
+        SendMailRequest[] array = requests.toArray(new SendMailRequest[0]);
+        SendMailException[] failures = new SendMailException[array.length];
+        pool.invoke(new BulkValidation(array, failures, 0, array.length));
+        SortedMap<Integer, SendMailException> result = new TreeMap<>();
+        for (int i = 0; i < failures.length; i++) {
+            if (failures[i] != null) {
+                result.put(i, failures[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param problems
+     *            problems returned by {@link #validate(SendMailRequest)}
+     * @return message describing the problems
+     */
+    static String message(List<String> problems) {
+        return "HARMONY: Invalid request - " + String.join("; ", problems);
+    }
+
+    private static SendMailException exception(List<String> problems) {
+        return new SendMailException(SendMailException.Category.INVALID_REQUEST, 0, message(problems), null, null, false);
+    }
+
+    private List<String> validate(SendMailRequest.Recipient recipient, String path, boolean hasDefaultAttributes,
+            List<String> problems) {
+        if (recipient == null) {
+            return problem(problems, path + ": missing");
+        }
+        String email = recipient.getEmailAddress();
+        if (email == null) {
+            problems = problem(problems, path + ".emailAddress: missing");
+        } else if (!EMAIL.matcher(email).matches()) {
+            problems = problem(problems, path + ".emailAddress: malformed '" + email + "'");
+        }
+        if (isBlank(recipient.getCustomerKey())) {
+            problems = problem(problems, path + ".customerKey: missing");
+        }
+        List<SendMailRequest.Attribute> attributes = recipient.getAttributes() == null
+                ? Collections.emptyList() : recipient.getAttributes();
+        if (attributes.isEmpty() && !hasDefaultAttributes) {
+            problems = problem(problems, path + ".attributes: missing");
+        }
+        for (int i = 0; i < attributes.size(); i++) {
+            problems = validate(attributes.get(i), path + ".attributes[" + i + "]", problems);
+        }
+        return problems;
+    }
+
+    private List<String> validate(SendMailRequest.Attribute attribute, String path, List<String> problems) {
+        if (isBlank(attribute.getAttributeName())) {
+            return problem(problems, path + ".attributeName: missing");
+        }
+        String type = attribute.getAttributeType();
+        Predicate<String> check = ATTRIBUTE_TYPES.get(type == null ? "String" : type.trim());
+        if (check == null) {
+            return problem(problems, path + ".attributeType: unknown '" + type + "'");
+        }
+        String value = attribute.getAttributeValue();
+        if (value == null) {
+            return problem(problems, path + ".attributeValue: missing");
+        }
+        if (!check.test(value)) {
+            return problem(problems, path + ".attributeValue: '" + value + "' is not a valid " + type);
+        }
+        return problems;
+    }
+
+    private static SendMailRequest.Recipient normalize(SendMailRequest.Recipient recipient) {
+        if (recipient == null) {
+            return null;
+        }
+        String email = recipient.getEmailAddress();
+        String customerKey = recipient.getCustomerKey();
+        List<SendMailRequest.Attribute> attributes = recipient.getAttributes() == null
+                ? null : normalize(recipient.getAttributes());
+        return new SendMailRequest.Recipient(
+                email == null ? null : email.trim().toLowerCase(Locale.ROOT),
+                customerKey == null ? null : customerKey.trim(),
+                attributes == null || attributes.isEmpty() ? null : attributes);
+    }
+
+    private static List<SendMailRequest.Attribute> normalize(List<SendMailRequest.Attribute> attributes) {
+        List<SendMailRequest.Attribute> normalized = new ArrayList<>(attributes.size());
+        for (SendMailRequest.Attribute attribute : attributes) {
+            if (attribute != null) {
+                String name = attribute.getAttributeName();
+                if (name != null && !name.equals(name.trim())) {
+                    attribute = new SendMailRequest.Attribute(name.trim(), attribute.getAttributeValue(),
+                            attribute.getAttributeType());
+                }
+                normalized.add(attribute);
+            }
+        }
+        return normalized;
+    }
+
+    private static List<String> problem(List<String> problems, String problem) {
+        List<String> list = problems == null ? new ArrayList<>(2) : problems;
+        list.add(problem);
+        return list;
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.trim().isEmpty();
+    }
+
+    private static boolean isNumber(String value, boolean integral) {
+        try {
+            BigDecimal number = new BigDecimal(value.trim());
+            return !integral || number.stripTrailingZeros().scale() <= 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private class BulkValidation extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SendMailRequest[] requests;
+        private final SendMailException[] failures;
+        private final int from;
+        private final int to;
+
+        BulkValidation(SendMailRequest[] requests, SendMailException[] failures, int from, int to) {
+            this.requests = requests;
+            this.failures = failures;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BULK_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    List<String> problems = validate(requests[i]);
+                    if (!problems.isEmpty()) {
+                        failures[i] = exception(problems);
+                    }
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BulkValidation(requests, failures, from, middle),
+                        new BulkValidation(requests, failures, middle, to));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.oath.client.harmony;
+
+/**
+ * How calls choose their shard when the client runs several, see
+ * {@link HarmonyClient.Builder#withShards(int, ShardSelection)}.
+ *
+ * @author Mike Shauneu
+ */
+public enum ShardSelection {
+
+    /**
+     * Spread calls evenly over the shards.
+     */
+    ROUND_ROBIN,
+
+    /**
+     * Send all calls of a campaign through the same shard, keeping a busy campaign from taking
+     * the connections of the others.
+     */
+    CAMPAIGN
+
+}
@@ -0,0 +1,292 @@
+package com.oath.client.harmony;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timing wheel holding timeouts in buckets of a fixed duration, so that scheduling and
+ * expiring a timeout costs {@code O(1)} regardless of how many are pending, unlike the heap of a
+ * {@code ScheduledExecutorService}. Expiry is accurate to one tick.
+ *
+ * <p>A single daemon thread, started with the first timeout, owns the buckets: new and cancelled
+ * timeouts are handed over through queues and {@link Timeout#expire()} runs on that thread, so it
+ * must not block.
+ *
+ * @author Mike Shauneu
+ */
+final class TimingWheel {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HarmonyClient.class);
+
+    /** Limit of new timeouts moved into buckets per tick, so a burst does not delay expiry. */
+    private static final int MAX_TRANSFER = 100_000;
+
+    private final String name;
+    private final long tickNanos;
+    private final int mask;
+    private final Timeout[] heads;
+    private final Timeout[] tails;
+
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private volatile Thread worker;
+    private volatile boolean stopped;
+    private long startNanos;
+    private long tick;
+
+    /**
+     * Constructor.
+     *
+     * @param name worker thread name
+     * @param tickNanos duration of a bucket
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     */
+    TimingWheel(String name, long tickNanos, int ticksPerWheel) {
+        int size = Integer.highestOneBit(Math.max(ticksPerWheel, 1) - 1) << 1;
+        this.name = name;
+        this.tickNanos = tickNanos;
+        this.mask = Math.max(size, 1) - 1;
+        this.heads = new Timeout[mask + 1];
+        this.tails = new Timeout[mask + 1];
+    }
+
+    /**
+     * Schedules a timeout. A timeout can be scheduled once.
+     *
+     * @param timeout timeout
+     * @param delayNanos delay from now
+     * @return {@code false} if the wheel is stopped and the timeout was cancelled instead
+     */
+    boolean schedule(Timeout timeout, long delayNanos) {
+        if (stopped) {
+            timeout.state = Timeout.CANCELLED;
+            return false;
+        }
+        if (worker == null) {
+            start();
+        }
+        timeout.wheel = this;
+        long elapsed = System.nanoTime() - startNanos;
+        // clamped like ScheduledThreadPoolExecutor does, a huge delay must not wrap into the past
+        timeout.deadline = delayNanos > Long.MAX_VALUE - elapsed ? Long.MAX_VALUE : elapsed + Math.max(delayNanos, 0);
+        pending.incrementAndGet();
+        added.add(timeout);
+        // stop may have collected the unprocessed timeouts before the add: unless stop took it, the
+        // timeout is cancelled here
+        if (stopped && Timeout.STATE.compareAndSet(timeout, Timeout.PENDING, Timeout.CANCELLED)) {
+            pending.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return number of timeouts neither expired nor cancelled
+     */
+    int size() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the worker thread. Timeouts scheduled concurrently are either returned or not scheduled.
+     *
+     * @return timeouts which neither expired nor were cancelled, they are cancelled now
+     */
+    List<Timeout> stop() {
+        stopped = true;
+        Thread thread;
+        synchronized (this) {
+            thread = worker;
+            if (thread == null) {
+                // never started, so nothing was scheduled
+                return new ArrayList<>();
+            }
+        }
+        thread.interrupt();
+        if (thread != Thread.currentThread()) {
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<Timeout> unprocessed = new ArrayList<>();
+        for (int i = 0; i < heads.length; i++) {
+            for (Timeout t = heads[i]; t != null; t = t.next) {
+                collect(t, unprocessed);
+            }
+            heads[i] = tails[i] = null;
+        }
+        for (Timeout t; (t = added.poll()) != null;) {
+            collect(t, unprocessed);
+        }
+        cancelled.clear();
+        return unprocessed;
+    }
+
+    private void collect(Timeout t, List<Timeout> unprocessed) {
+        if (Timeout.STATE.compareAndSet(t, Timeout.PENDING, Timeout.CANCELLED)) {
+            pending.decrementAndGet();
+            unprocessed.add(t);
+        }
+    }
+
+    private synchronized void start() {
+        if (worker == null && !stopped) {
+            startNanos = System.nanoTime();
+            Thread thread = new Thread(this::run, name);
+            thread.setDaemon(true);
+            worker = thread;
+            thread.start();
+        }
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos;
+            while (!stopped && (sleepNanos = startNanos + deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+            }
+            if (stopped) {
+                return;
+            }
+            removeCancelled();
+            transferAdded();
+            expire((int) (tick & mask), deadline);
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        for (Timeout t; (t = cancelled.poll()) != null;) {
+            if (t.bucket >= 0) {
+                unlink(t);
+            }
+        }
+    }
+
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFER; i++) {
+            Timeout t = added.poll();
+            if (t == null) {
+                return;
+            }
+            if (t.state != Timeout.PENDING) {
+                continue;
+            }
+            long ticks = t.deadline / tickNanos;
+            t.rounds = (ticks - tick) / heads.length;
+            // a timeout already due goes to the current bucket
+            int bucket = (int) (Math.max(ticks, tick) & mask);
+            t.bucket = bucket;
+            t.prev = tails[bucket];
+            if (tails[bucket] == null) {
+                heads[bucket] = t;
+            } else {
+                tails[bucket].next = t;
+            }
+            tails[bucket] = t;
+        }
+    }
+
+    private void expire(int bucket, long deadline) {
+        Timeout t = heads[bucket];
+        while (t != null) {
+            Timeout next = t.next;
+            if (t.state != Timeout.PENDING) {
+                unlink(t);
+            } else if (t.rounds <= 0 && t.deadline <= deadline) {
+                unlink(t);
+                if (Timeout.STATE.compareAndSet(t, Timeout.PENDING, Timeout.EXPIRED)) {
+                    pending.decrementAndGet();
+                    try {
+                        t.expire();
+                    } catch (Throwable e) {
+                        LOGGER.warn("Timeout failed", e);
+                    }
+                }
+            } else {
+                t.rounds--;
+            }
+            t = next;
+        }
+    }
+
+    private void unlink(Timeout t) {
+        int bucket = t.bucket;
+        if (t.prev == null) {
+            heads[bucket] = t.next;
+        } else {
+            t.prev.next = t.next;
+        }
+        if (t.next == null) {
+            tails[bucket] = t.prev;
+        } else {
+            t.next.prev = t.prev;
+        }
+        t.prev = t.next = null;
+        t.bucket = -1;
+    }
+
+    /**
+     * Entry of the wheel, subclasses carry the payload.
+     */
+    abstract static class Timeout {
+        static final int PENDING = 0, EXPIRED = 1, CANCELLED = 2;
+
+        static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        volatile int state;
+
+        // owned by the worker thread
+        TimingWheel wheel;
+        long deadline;
+        long rounds;
+        int bucket = -1;
+        Timeout prev;
+        Timeout next;
+
+        /**
+         * Runs on the worker thread when the timeout is due.
+         */
+        abstract void expire();
+
+        /**
+         * Cancels the timeout unless it already expired.
+         *
+         * @return {@code true} if cancelled by this call
+         */
+        boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            TimingWheel w = wheel;
+            if (w != null) {
+                w.pending.decrementAndGet();
+                if (!w.stopped) {
+                    w.cancelled.add(this);
+                }
+            }
+            return true;
+        }
+    }
+
+}
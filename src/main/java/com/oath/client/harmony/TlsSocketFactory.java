@@ -0,0 +1,88 @@
+package com.oath.client.harmony;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * {@link SSLSocketFactory} enabling only the TLS versions and cipher suites of a
+ * {@link Transport.Config}, for transports built on the JDK.
+ *
+ * @author Mike Shauneu
+ */
+final class TlsSocketFactory extends SSLSocketFactory {
+
+    private final SSLSocketFactory delegate;
+    private final String[] protocols;
+    private final String[] cipherSuites;
+
+    TlsSocketFactory(SSLSocketFactory delegate, Transport.Config config) {
+        this.delegate = delegate;
+        this.protocols = config.getTlsVersions().toArray(new String[0]);
+        this.cipherSuites = supported(config.getCipherSuites(), delegate.getSupportedCipherSuites());
+    }
+
+    /**
+     * @param cipherSuites wanted cipher suites in order of preference
+     * @param supported cipher suites supported by the JVM
+     * @return wanted cipher suites which are supported, in order of preference
+     */
+    static String[] supported(List<String> cipherSuites, String[] supported) {
+        List<String> supportedList = Arrays.asList(supported);
+        return cipherSuites.stream().filter(supportedList::contains).toArray(String[]::new);
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return cipherSuites.clone();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return configure(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+        return configure(delegate.createSocket(socket, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return configure(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return configure(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return configure(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return configure(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    private Socket configure(Socket socket) {
+        if (socket instanceof SSLSocket) {
+            ((SSLSocket) socket).setEnabledProtocols(protocols);
+            ((SSLSocket) socket).setEnabledCipherSuites(cipherSuites);
+        }
+        return socket;
+    }
+
+}
@@ -0,0 +1,304 @@
+package com.oath.client.harmony;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP transport used by {@link HarmonyClient}, chosen with
+ * {@link HarmonyClient.Builder#withTransport(Factory)}.
+ *
+ * <p>A transport executes {@link TransportRequest}s and streams back {@link TransportResponse}s.
+ * For requests marked {@link TransportRequest#isAuthenticated() authenticated} it must add the
+ * {@code Authorization} header given by the {@link Authorizer} and, when the server answers
+ * {@code 403 Forbidden}, send the request once more with a refreshed authorization.
+ *
+ * <p>Available backends:
+ * <ul>
+ * <li>{@link OkHttpTransport} - default, OkHttp dispatcher and connection pool</li>
+ * <li>{@link JdkTransport} - JDK {@code java.net.http.HttpClient} (HTTP/2) on Java 11 and later,
+ * {@code java.net.HttpURLConnection} before, on a pluggable executor</li>
+ * <li>{@link InMemoryTransport} - in process handler, for tests and benchmarks</li>
+ * </ul>
+ *
+ * @author Mike Shauneu
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Executes the request on the calling thread.
+     *
+     * @param request request
+     * @return response, to be closed by the caller
+     * @throws IOException on transport failure, a {@link java.net.ConnectException} if no
+     *             connection could be established, including on a connect timeout, so that the
+     *             client fails over to another endpoint
+     */
+    TransportResponse execute(TransportRequest request) throws IOException;
+
+    /**
+     * Executes the request asynchronously. The returned future completes exceptionally with an
+     * {@link IOException} on transport failure, as thrown by {@link #execute(TransportRequest)},
+     * cancelling it cancels the call.
+     *
+     * @param request request
+     * @return future response, to be closed by the consumer
+     */
+    CompletableFuture<TransportResponse> executeAsync(TransportRequest request);
+
+    /**
+     * Releases resources held by the transport. Calls in flight may fail.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * @return calls waiting for a thread or a connection, {@code -1} if not tracked
+     */
+    default int getQueuedCalls() {
+        return -1;
+    }
+
+    /**
+     * @return calls executing, {@code -1} if not tracked
+     */
+    default int getRunningCalls() {
+        return -1;
+    }
+
+    /**
+     * @return pooled connections, {@code -1} if the transport has no pool
+     */
+    default int getConnectionCount() {
+        return -1;
+    }
+
+    /**
+     * @return idle pooled connections, {@code -1} if the transport has no pool
+     */
+    default int getIdleConnectionCount() {
+        return -1;
+    }
+
+    /**
+     * @return maximum number of calls executing at once, {@code -1} if not limited by the transport
+     */
+    default int getMaxRequests() {
+        return -1;
+    }
+
+    /**
+     * Changes the maximum number of calls executing at once, calls in flight are not affected.
+     *
+     * @param maxRequests maximum number of calls
+     * @throws UnsupportedOperationException if the transport cannot change it
+     */
+    default void setMaxRequests(int maxRequests) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no request limit");
+    }
+
+    /**
+     * @return maximum number of calls executing at once per host, {@code -1} if not limited by the
+     *         transport
+     */
+    default int getMaxRequestsPerHost() {
+        return -1;
+    }
+
+    /**
+     * Changes the maximum number of calls executing at once per host, calls in flight are not
+     * affected.
+     *
+     * @param maxRequestsPerHost maximum number of calls per host
+     * @throws UnsupportedOperationException if the transport cannot change it
+     */
+    default void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no request limit");
+    }
+
+    /**
+     * @return connect timeout in milliseconds, {@code -1} if it cannot be changed
+     */
+    default long getConnectTimeoutMillis() {
+        return -1;
+    }
+
+    /**
+     * Changes the connect timeout of calls started from now on.
+     *
+     * @param connectTimeoutMillis connect timeout in milliseconds
+     * @throws UnsupportedOperationException if the transport cannot change it
+     */
+    default void setConnectTimeoutMillis(long connectTimeoutMillis) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has fixed timeouts");
+    }
+
+    /**
+     * @return read and write timeout in milliseconds, {@code -1} if it cannot be changed
+     */
+    default long getReadTimeoutMillis() {
+        return -1;
+    }
+
+    /**
+     * Changes the read and write timeout of calls started from now on.
+     *
+     * @param readTimeoutMillis read and write timeout in milliseconds
+     * @throws UnsupportedOperationException if the transport cannot change it
+     */
+    default void setReadTimeoutMillis(long readTimeoutMillis) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has fixed timeouts");
+    }
+
+    /**
+     * @return HTTP log level, {@code null} if the transport does not log
+     */
+    default String getLogLevel() {
+        return null;
+    }
+
+    /**
+     * Overrides the HTTP log level. What is logged still goes through the logger of the
+     * transport, subject to its configured level.
+     *
+     * @param logLevel {@code NONE}, {@code BASIC}, {@code HEADERS} or {@code BODY}, {@code null}
+     *        to derive it from the logger configuration again
+     * @throws UnsupportedOperationException if the transport does not log
+     */
+    default void setLogLevel(String logLevel) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not log");
+    }
+
+    /**
+     * Source of the {@code Authorization} header value.
+     */
+    @FunctionalInterface
+    interface Authorizer {
+
+        /**
+         * @param refresh {@code true} if the last authorization was rejected
+         * @return {@code Authorization} header value
+         * @throws IOException if authorization could not be obtained
+         */
+        String authorization(boolean refresh) throws IOException;
+    }
+
+    /**
+     * Creates the transport of a client.
+     */
+    @FunctionalInterface
+    interface Factory {
+
+        /**
+         * @param config client settings relevant to the transport
+         * @return transport
+         */
+        Transport create(Config config);
+    }
+
+    /**
+     * Client settings relevant to the transport. A transport has to honor them or fail to be
+     * created with an {@link UnsupportedOperationException}.
+     */
+    final class Config {
+
+        static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+        private static final List<String> TLS_VERSIONS = Collections.singletonList("TLSv1.2");
+
+        private static final List<String> CIPHER_SUITES = Collections.unmodifiableList(Arrays.asList(
+                "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+                "TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA384",
+                "TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA",
+                "TLS_DHE_RSA_WITH_AES_256_GCM_SHA384",
+                "TLS_DHE_RSA_WITH_AES_256_CBC_SHA256",
+                "TLS_DHE_RSA_WITH_AES_256_CBC_SHA",
+                "TLS_DHE_RSA_WITH_CAMELLIA_256_CBC_SHA",
+                "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+                "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA256",
+                "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA",
+                "TLS_DHE_RSA_WITH_AES_128_GCM_SHA256",
+                "TLS_DHE_RSA_WITH_AES_128_CBC_SHA256",
+                "TLS_DHE_RSA_WITH_AES_128_CBC_SHA",
+                "TLS_DHE_RSA_WITH_CAMELLIA_128_CBC_SHA"));
+
+        private final Authorizer authorizer;
+        private final long dnsTtlNanos;
+        private final int shards;
+        private final long connectTimeoutMillis;
+        private final long readTimeoutMillis;
+
+        Config(Authorizer authorizer, long dnsTtlNanos) {
+            this(authorizer, dnsTtlNanos, 1);
+        }
+
+        Config(Authorizer authorizer, long dnsTtlNanos, int shards) {
+            this(authorizer, dnsTtlNanos, shards, DEFAULT_TIMEOUT_MILLIS, DEFAULT_TIMEOUT_MILLIS);
+        }
+
+        Config(Authorizer authorizer, long dnsTtlNanos, int shards, long connectTimeoutMillis, long readTimeoutMillis) {
+            this.authorizer = authorizer;
+            this.dnsTtlNanos = dnsTtlNanos;
+            this.shards = shards;
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.readTimeoutMillis = readTimeoutMillis;
+        }
+
+        /**
+         * @return source of the {@code Authorization} header
+         */
+        public Authorizer getAuthorizer() {
+            return authorizer;
+        }
+
+        /**
+         * @return time to cache resolved addresses for, {@code 0} if caching is disabled
+         */
+        public long getDnsTtlNanos() {
+            return dnsTtlNanos;
+        }
+
+        /**
+         * @return number of independent dispatcher and connection pool shards to run, requests
+         *         choose theirs by {@link TransportRequest#getShardKey()}
+         */
+        public int getShards() {
+            return shards;
+        }
+
+        /**
+         * @return connect timeout in milliseconds
+         */
+        public long getConnectTimeoutMillis() {
+            return connectTimeoutMillis;
+        }
+
+        /**
+         * @return timeout in milliseconds of reads, and of writes where the transport supports it
+         */
+        public long getReadTimeoutMillis() {
+            return readTimeoutMillis;
+        }
+
+        /**
+         * @return TLS protocol versions to enable, in JSSE names
+         */
+        public List<String> getTlsVersions() {
+            return TLS_VERSIONS;
+        }
+
+        /**
+         * @return TLS cipher suites to enable in order of preference, in JSSE names. Suites the JVM
+         *         does not support are skipped.
+         */
+        public List<String> getCipherSuites() {
+            return CIPHER_SUITES;
+        }
+    }
+
+}
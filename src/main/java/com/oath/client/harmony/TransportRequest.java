@@ -0,0 +1,167 @@
+package com.oath.client.harmony;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Transport independent HTTP request.
+ *
+ * @author Mike Shauneu
+ */
+public final class TransportRequest {
+
+    private final String method;
+    private final String url;
+    private final Map<String, String> headers;
+    private final String contentType;
+    private final byte[] body;
+    private final boolean authenticated;
+    private final boolean gzip;
+    private final String shardKey;
+
+    TransportRequest(Builder builder) {
+        this.method = Objects.requireNonNull(builder.method);
+        this.url = Objects.requireNonNull(builder.url);
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(builder.headers));
+        this.contentType = builder.contentType;
+        this.body = builder.body;
+        this.authenticated = builder.authenticated;
+        this.gzip = builder.gzip;
+        this.shardKey = builder.shardKey;
+    }
+
+    /**
+     * @return HTTP method
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return absolute URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return request headers, excluding {@code Content-Type}
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @param name header name
+     * @return header value or {@code null}
+     */
+    public String getHeader(String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return body media type, {@code null} if there is no body
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return body, {@code null} if there is none. Must not be modified.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return {@code true} if the transport has to add the {@code Authorization} header
+     */
+    public boolean isAuthenticated() {
+        return authenticated;
+    }
+
+    /**
+     * @return {@code true} if the transport has to gzip the body while writing it and add the
+     *         {@code Content-Encoding: gzip} header, {@link #getBody()} is not compressed
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * @return key choosing the shard of a sharded transport, {@code null} for round robin
+     */
+    public String getShardKey() {
+        return shardKey;
+    }
+
+    /**
+     * @return builder initialized with this request
+     */
+    public Builder newBuilder() {
+        Builder builder = new Builder();
+        builder.method = method;
+        builder.url = url;
+        builder.headers.putAll(headers);
+        builder.contentType = contentType;
+        builder.body = body;
+        builder.authenticated = authenticated;
+        builder.gzip = gzip;
+        builder.shardKey = shardKey;
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url;
+    }
+
+    public static class Builder {
+        String method = "GET";
+        String url;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        String contentType;
+        byte[] body;
+        boolean authenticated;
+        boolean gzip;
+        String shardKey;
+
+        public Builder withUrl(String url) {
+            this.url = url;
+            return this;
+        }
+        public Builder withHeader(String name, String value) {
+            this.headers.put(name, value);
+            return this;
+        }
+        public Builder withMethod(String method, String contentType, byte[] body) {
+            this.method = method;
+            this.contentType = contentType;
+            this.body = body;
+            return this;
+        }
+        public Builder withAuthenticated(boolean authenticated) {
+            this.authenticated = authenticated;
+            return this;
+        }
+        public Builder withGzip(boolean gzip) {
+            this.gzip = gzip;
+            return this;
+        }
+        public Builder withShardKey(String shardKey) {
+            this.shardKey = shardKey;
+            return this;
+        }
+        public TransportRequest build() {
+            return new TransportRequest(this);
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.oath.client.harmony;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Transport independent HTTP response. The body is streamed from the transport, closing the
+ * response releases the underlying connection.
+ *
+ * @author Mike Shauneu
+ */
+public final class TransportResponse implements Closeable {
+
+    private static final InputStream EMPTY = new ByteArrayInputStream(new byte[0]);
+
+    private final int code;
+    private final Map<String, String> headers;
+    private final long contentLength;
+    private final InputStream body;
+
+    /**
+     * Constructor.
+     *
+     * @param code
+     *            HTTP status
+     * @param headers
+     *            response headers, may be {@code null}
+     * @param contentLength
+     *            body length, {@code -1} if unknown
+     * @param body
+     *            body stream, may be {@code null}
+     */
+    public TransportResponse(int code, Map<String, String> headers, long contentLength, InputStream body) {
+        this.code = code;
+        Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (headers != null) {
+            map.putAll(headers);
+        }
+        this.headers = Collections.unmodifiableMap(map);
+        this.contentLength = contentLength;
+        this.body = body != null ? body : EMPTY;
+    }
+
+    /**
+     * Convenient constructor for a fully buffered response.
+     *
+     * @param code
+     *            HTTP status
+     * @param contentType
+     *            body media type, may be {@code null}
+     * @param body
+     *            body, may be {@code null}
+     */
+    public TransportResponse(int code, String contentType, byte[] body) {
+        this(code, contentType == null ? null : Collections.singletonMap("Content-Type", contentType),
+                body == null ? 0 : body.length,
+                body == null ? null : new ByteArrayInputStream(body));
+    }
+
+    /**
+     * @return HTTP status
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return {@code true} if the status is in the 2xx range
+     */
+    public boolean isSuccessful() {
+        return code >= 200 && code < 300;
+    }
+
+    /**
+     * @param name header name, case insensitive
+     * @return header value or {@code null}
+     */
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * @return body media type or {@code null}
+     */
+    public String getContentType() {
+        return headers.get("Content-Type");
+    }
+
+    /**
+     * @return body length, {@code -1} if unknown
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return body stream
+     */
+    public InputStream getBody() {
+        return body;
+    }
+
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+
+}
@@ -0,0 +1,255 @@
+package com.oath.client.harmony;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Transport} backed by the JDK {@code java.net.http.HttpClient}, created by the
+ * {@link JdkTransport} factories on Java 11 and later.
+ *
+ * <p>HTTP/2 is negotiated, with ALPN on TLS connections, and calls to a host are multiplexed over
+ * its connection. Responses are handled on the given executor. The read timeout applies until the
+ * response headers are received. With {@link Transport.Config#getShards()} above one, calls are
+ * spread over as many clients, each with its own connections, chosen as by {@link OkHttpTransport}.
+ *
+ * @author Mike Shauneu
+ */
+final class HttpClientTransport implements Transport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HarmonyClient.class);
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private final Transport.Authorizer authorizer;
+
+    private final ExecutorService executor;
+
+    private final HttpClient[] shards;
+
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    private final Duration readTimeout;
+
+    HttpClientTransport(Transport.Config config, ExecutorService executor) {
+        if (config.getDnsTtlNanos() > 0) {
+            throw new UnsupportedOperationException("JdkTransport does not cache resolved addresses");
+        }
+        this.authorizer = config.getAuthorizer();
+        this.executor = executor;
+        this.readTimeout = Duration.ofMillis(config.getReadTimeoutMillis());
+
+        SSLContext sslContext;
+        try {
+            sslContext = SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        SSLParameters sslParameters = new SSLParameters(
+                TlsSocketFactory.supported(config.getCipherSuites(),
+                        sslContext.getSupportedSSLParameters().getCipherSuites()),
+                config.getTlsVersions().toArray(new String[0]));
+
+        this.shards = new HttpClient[Math.max(config.getShards(), 1)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .followRedirects(HttpClient.Redirect.NEVER)
+                    .connectTimeout(Duration.ofMillis(config.getConnectTimeoutMillis()))
+                    .sslContext(sslContext)
+                    .sslParameters(sslParameters)
+                    .executor(this::dispatch)
+                    .build();
+        }
+    }
+
+    /**
+     * Hands a task of the HTTP client over to the executor, recording how long it waits there.
+     */
+    private void dispatch(Runnable task) {
+        Object queueWait = HarmonyEvents.beginQueueWait("HttpClient Executor");
+        executor.execute(queueWait == null ? task : () -> {
+            HarmonyEvents.commitQueueWait(queueWait);
+            task.run();
+        });
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        HttpClient client = shard(request);
+        try {
+            if (!request.isAuthenticated()) {
+                return response(request, client.send(httpRequest(request, null), HttpResponse.BodyHandlers.ofInputStream()));
+            }
+            HttpResponse<InputStream> response = client.send(httpRequest(request, authorizer.authorization(false)),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() == HttpURLConnection.HTTP_FORBIDDEN) {
+                JdkTransport.drainOnClose(response.body()).close();
+                response = client.send(httpRequest(request, authorizer.authorization(true)),
+                        HttpResponse.BodyHandlers.ofInputStream());
+            }
+            return response(request, response);
+        } catch (HttpConnectTimeoutException e) {
+            throw Endpoints.connectTimeout(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+        CompletableFuture<TransportResponse> futureResponse = new CompletableFuture<>();
+        HttpClient client = shard(request);
+        CompletableFuture<HttpResponse<InputStream>> call;
+        try {
+            call = client.sendAsync(httpRequest(request, request.isAuthenticated() ? authorizer.authorization(false) : null),
+                    HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            futureResponse.completeExceptionally(e);
+            return futureResponse;
+        }
+        if (request.isAuthenticated()) {
+            call = call.thenCompose(response -> {
+                if (response.statusCode() != HttpURLConnection.HTTP_FORBIDDEN) {
+                    return CompletableFuture.completedFuture(response);
+                }
+                try {
+                    JdkTransport.drainOnClose(response.body()).close();
+                    return client.sendAsync(httpRequest(request, authorizer.authorization(true)),
+                            HttpResponse.BodyHandlers.ofInputStream());
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+        CompletableFuture<HttpResponse<InputStream>> finalCall = call;
+        call.whenComplete((response, t) -> {
+            if (t != null) {
+                Throwable e = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                futureResponse.completeExceptionally(e instanceof HttpConnectTimeoutException
+                        ? Endpoints.connectTimeout((HttpConnectTimeoutException) e) : e);
+                return;
+            }
+            TransportResponse transportResponse = response(request, response);
+            if (!futureResponse.complete(transportResponse)) {
+                try {
+                    transportResponse.close();
+                } catch (IOException e) {
+                    LOGGER.debug("HARMONY: Failed to release response", e);
+                }
+            }
+        });
+        futureResponse.whenComplete((r, e) -> {
+            if (futureResponse.isCancelled()) {
+                finalCall.cancel(true);
+            }
+        });
+        return futureResponse;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private HttpClient shard(TransportRequest request) {
+        if (shards.length == 1) {
+            return shards[0];
+        }
+        String key = request.getShardKey();
+        int i = key == null ? nextShard.getAndIncrement() : key.hashCode() ^ (key.hashCode() >>> 16);
+        return shards[Math.floorMod(i, shards.length)];
+    }
+
+    private HttpRequest httpRequest(TransportRequest request, String authorization) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.getUrl()))
+                .timeout(readTimeout);
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        if (authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        byte[] body = request.getBody();
+        if (body == null) {
+            return builder.method(request.getMethod(), HttpRequest.BodyPublishers.noBody()).build();
+        }
+        builder.header("Content-Type", request.getContentType());
+        if (request.isGzip()) {
+            builder.header("Content-Encoding", "gzip");
+            // compressed while sent, every (re)send reads a new stream
+            return builder.method(request.getMethod(), HttpRequest.BodyPublishers.ofInputStream(() -> gzip(body))).build();
+        }
+        return builder.method(request.getMethod(), HttpRequest.BodyPublishers.ofByteArray(body)).build();
+    }
+
+    /**
+     * @return stream of given content in gzip format, deflating it as it is read
+     */
+    private static InputStream gzip(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putInt((int) crc.getValue()).putInt(content.length);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        InputStream deflated = new DeflaterInputStream(new ByteArrayInputStream(content), deflater, GZIP_BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+        return new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(GZIP_HEADER), deflated, new ByteArrayInputStream(trailer.array()))));
+    }
+
+    private static TransportResponse response(TransportRequest request, HttpResponse<InputStream> response) {
+        LOGGER.debug("{} {} {} {}", response.statusCode(), request.getMethod(), request.getUrl(), response.version());
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                headers.put(header.getKey(), header.getValue().get(header.getValue().size() - 1));
+            }
+        }
+        long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        return new TransportResponse(response.statusCode(), headers, contentLength,
+                JdkTransport.drainOnClose(response.body()));
+    }
+
+}
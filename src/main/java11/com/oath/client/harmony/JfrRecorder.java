@@ -0,0 +1,176 @@
+package com.oath.client.harmony;
+
+import java.util.concurrent.CompletionException;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * {@link HarmonyEvents.Recorder} on Java Flight Recorder events, loaded by {@link HarmonyEvents}
+ * when the JVM has a Flight Recorder.
+ *
+ * @author Mike Shauneu
+ */
+final class JfrRecorder implements HarmonyEvents.Recorder {
+
+    @Override
+    public Object beginSendMail(String campaign, String messageId, int recipients) {
+        if (!SendMail.TYPE.isEnabled()) {
+            return null;
+        }
+        SendMail event = new SendMail();
+        event.begin();
+        event.campaign = campaign;
+        event.messageId = messageId;
+        event.recipients = recipients;
+        return event;
+    }
+
+    @Override
+    public void requestBytes(Object event, long bytes) {
+        ((SendMail) event).requestBytes = bytes;
+    }
+
+    @Override
+    public void commitSendMail(Object event, SendMailResponse response, Throwable t) {
+        SendMail sendMail = (SendMail) event;
+        sendMail.end();
+        if (sendMail.shouldCommit()) {
+            Throwable e = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            if (e instanceof SendMailException) {
+                sendMail.status = ((SendMailException) e).getHttpStatus();
+                sendMail.result = ((SendMailException) e).getCategory().name();
+            } else if (e != null) {
+                sendMail.result = e.getClass().getSimpleName();
+            } else {
+                sendMail.status = 200;
+                sendMail.result = response.getResultCode();
+            }
+            sendMail.commit();
+        }
+    }
+
+    @Override
+    public Object beginTokenFetch(Object endpoint) {
+        if (!TokenFetch.TYPE.isEnabled()) {
+            return null;
+        }
+        TokenFetch event = new TokenFetch();
+        event.begin();
+        event.endpoint = String.valueOf(endpoint);
+        return event;
+    }
+
+    @Override
+    public void commitTokenFetch(Object event, int status) {
+        TokenFetch tokenFetch = (TokenFetch) event;
+        tokenFetch.end();
+        tokenFetch.status = status;
+        tokenFetch.commit();
+    }
+
+    @Override
+    public Object beginAuthRetry() {
+        if (!AuthRetry.TYPE.isEnabled()) {
+            return null;
+        }
+        AuthRetry event = new AuthRetry();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void commitAuthRetry(Object event) {
+        ((AuthRetry) event).commit();
+    }
+
+    @Override
+    public Object beginQueueWait(String queue) {
+        if (!QueueWait.TYPE.isEnabled()) {
+            return null;
+        }
+        QueueWait event = new QueueWait();
+        event.begin();
+        event.queue = queue;
+        return event;
+    }
+
+    @Override
+    public void commitQueueWait(Object event) {
+        ((QueueWait) event).commit();
+    }
+
+    @Name("com.oath.client.harmony.SendMail")
+    @Label("Harmony Send Mail")
+    @Description("sendMail call, from the call, or the release of a scheduled send, to the completion of the returned future")
+    @Category("Harmony Client")
+    @StackTrace(false)
+    static class SendMail extends Event {
+        static final EventType TYPE = EventType.getEventType(SendMail.class);
+
+        @Label("Campaign")
+        String campaign;
+
+        @Label("Message Id")
+        String messageId;
+
+        @Label("Recipients")
+        int recipients;
+
+        @Label("Request Size")
+        @DataAmount
+        long requestBytes;
+
+        @Label("HTTP Status")
+        @Description("0 if no response was received")
+        int status;
+
+        @Label("Result")
+        @Description("Harmony result code, or failure category")
+        String result;
+    }
+
+    @Name("com.oath.client.harmony.TokenFetch")
+    @Label("Harmony Token Fetch")
+    @Description("Access token request to an authorization endpoint")
+    @Category("Harmony Client")
+    @StackTrace(false)
+    static class TokenFetch extends Event {
+        static final EventType TYPE = EventType.getEventType(TokenFetch.class);
+
+        @Label("Endpoint")
+        String endpoint;
+
+        @Label("HTTP Status")
+        @Description("0 if no response was received")
+        int status;
+    }
+
+    @Name("com.oath.client.harmony.AuthRetry")
+    @Label("Harmony 403 Retry")
+    @Description("Token refresh after a 403 response, including the wait for other refreshing threads")
+    @Category("Harmony Client")
+    @StackTrace(false)
+    static class AuthRetry extends Event {
+        static final EventType TYPE = EventType.getEventType(AuthRetry.class);
+    }
+
+    @Name("com.oath.client.harmony.QueueWait")
+    @Label("Harmony Queue Wait")
+    @Description("Time a call, send or row waited for a thread, an in-flight permit, payload budget or a rate limit slot")
+    @Category("Harmony Client")
+    @StackTrace(false)
+    static class QueueWait extends Event {
+        static final EventType TYPE = EventType.getEventType(QueueWait.class);
+
+        @Label("Queue")
+        String queue;
+    }
+
+}
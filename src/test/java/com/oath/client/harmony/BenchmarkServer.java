@@ -0,0 +1,120 @@
+package com.oath.client.harmony;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local server of the benchmarks answering token requests and sends at once, gzipped bodies
+ * included.
+ *
+ * <p>Benchmarks call {@link #quietLogging()} first: at the DEBUG level of the test resources every
+ * plain body would be logged and the benchmarks would measure the logger.
+ *
+ * @author Mike Shauneu
+ */
+final class BenchmarkServer implements AutoCloseable {
+
+    private static final byte[] TOKEN = "{\"access_token\":\"access_token\"}".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] SENT = "{\"resultCode\":\"OK\",\"messageId\":\"message_id\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final LongAdder received = new LongAdder();
+
+    /**
+     * Lowers logging to WARN, before the first logger is created.
+     */
+    static void quietLogging() {
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+    }
+
+    /**
+     * Starts the server on a loopback port.
+     *
+     * @param threads threads handling requests
+     */
+    BenchmarkServer(int threads) throws IOException {
+        // Nagle's algorithm is off on this side, OkHttpTransport turns it off on the client side
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.createContext("/", this::handle);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return client to this server, without further settings
+     */
+    HarmonyClient.Builder client() {
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        return new HarmonyClient.Builder()
+                .withAuthBaseUrl(baseUrl)
+                .withMsgBaseUrl(baseUrl)
+                .withClientId("client_id")
+                .withClientPass("client_pass")
+                .withUserName("user_name")
+                .withUserPass("user_pass");
+    }
+
+    /**
+     * @return request body bytes received, as sent
+     */
+    long getReceived() {
+        return received.sum();
+    }
+
+    void resetReceived() {
+        received.reset();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        InputStream body = new FilterInputStream(exchange.getRequestBody()) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    received.add(n);
+                }
+                return n;
+            }
+        };
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            body = new GZIPInputStream(body);
+        }
+        try (InputStream in = body) {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // drain
+            }
+        }
+        byte[] response = "POST".equals(exchange.getRequestMethod()) ? TOKEN : SENT;
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+}
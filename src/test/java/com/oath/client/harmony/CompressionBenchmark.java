@@ -0,0 +1,76 @@
+package com.oath.client.harmony;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Request body compression benchmark, run as a main class:
+ * {@code CompressionBenchmark [sends] [recipients] [attributes]}.
+ *
+ * <p>Sends a request of given number of recipients with given number of attributes each, plus as
+ * many default attributes, uncompressed and gzipped to a {@link BenchmarkServer}. Reports the body
+ * bytes received per send and the median and 99th percentile send latency. On loopback the latency
+ * shows the compression cost only, the saving shows on links where upload time matters.
+ *
+ * @author Mike Shauneu
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkServer.quietLogging();
+
+        int sends = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int recipients = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int attributes = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        SendMailRequest request = request(recipients, attributes);
+        System.out.printf("%d recipients, %d attributes each%n", recipients, attributes);
+        System.out.printf("%-12s %14s %10s %10s%n", "", "bytes/send", "p50 us", "p99 us");
+        try (BenchmarkServer server = new BenchmarkServer(4)) {
+            for (boolean gzip : new boolean[] { false, true }) {
+                run(server, gzip, request, sends / 10);
+                long[] latencies = run(server, gzip, request, sends);
+                System.out.printf("%-12s %14d %10d %10d%n", gzip ? "gzip" : "identity",
+                        server.getReceived() / sends, latencies[sends / 2] / 1000, latencies[sends * 99 / 100] / 1000);
+            }
+        }
+    }
+
+    private static long[] run(BenchmarkServer server, boolean gzip, SendMailRequest request, int sends)
+            throws Exception {
+        HarmonyClient.Builder builder = server.client();
+        if (gzip) {
+            builder.withGzip(1024);
+        }
+        try (HarmonyClient harmonyClient = builder.build()) {
+            harmonyClient.sendMail("ou_id", request).get();
+            server.resetReceived();
+            long[] latencies = new long[sends];
+            for (int i = 0; i < sends; i++) {
+                long start = System.nanoTime();
+                harmonyClient.sendMail("ou_id", request).get();
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+            return latencies;
+        }
+    }
+
+    private static SendMailRequest request(int recipients, int attributes) {
+        List<SendMailRequest.Recipient> to = new ArrayList<>();
+        for (int r = 0; r < recipients; r++) {
+            List<SendMailRequest.Attribute> values = new ArrayList<>();
+            for (int a = 0; a < attributes; a++) {
+                values.add(new SendMailRequest.Attribute("attribute_" + a, "value " + a + " of user " + r));
+            }
+            to.add(new SendMailRequest.Recipient("user" + r + "@email.io", "customer_" + r, values));
+        }
+        List<SendMailRequest.Attribute> defaults = new ArrayList<>();
+        for (int a = 0; a < attributes; a++) {
+            defaults.add(new SendMailRequest.Attribute("default_" + a, "default value " + a));
+        }
+        return new SendMailRequest("message_id", to, defaults);
+    }
+
+}
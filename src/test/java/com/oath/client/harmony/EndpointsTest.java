@@ -0,0 +1,152 @@
+package com.oath.client.harmony;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * {@code Endpoints} test.
+ *
+ * @author Mike Shauneu
+ */
+public class EndpointsTest {
+
+    @Test
+    public void testSelection() {
+        Endpoints endpoints = new Endpoints(Arrays.asList("http://a.test", "http://b.test", "http://c.test"));
+        Endpoints.Endpoint a = endpoints.all().get(0);
+        Endpoints.Endpoint b = endpoints.all().get(1);
+        Endpoints.Endpoint c = endpoints.all().get(2);
+
+        a.success(TimeUnit.MILLISECONDS.toNanos(50));
+        b.success(TimeUnit.MILLISECONDS.toNanos(10));
+        c.success(TimeUnit.MILLISECONDS.toNanos(30));
+        assertThat(endpoints.select(), sameInstance(b));
+
+        b.failure();
+        assertThat(endpoints.select(), sameInstance(c));
+
+        c.failure();
+        a.failure();
+        a.failure();
+        // everything is down, the endpoint coming back first wins
+        assertThat(endpoints.select(), sameInstance(b));
+
+        b.success(TimeUnit.MILLISECONDS.toNanos(10));
+        assertThat(b.getFailures(), equalTo(0));
+        assertThat(endpoints.select(), sameInstance(b));
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        MockWebServer dead = new MockWebServer();
+        int deadPort = dead.getPort();
+        dead.shutdown();
+
+        try (MockWebServer fast = server(0); MockWebServer slow = server(200);
+                HarmonyClient harmonyClient = new HarmonyClient.Builder()
+                    .withAuthBaseUrls("http://localhost:" + deadPort, "http://localhost:" + fast.getPort())
+                    .withMsgBaseUrls(
+                            "http://localhost:" + deadPort,
+                            "http://localhost:" + slow.getPort(),
+                            "http://localhost:" + fast.getPort())
+                    .withClientId("client_id")
+                    .withClientPass("client_pass")
+                    .withUserName("user_name")
+                    .withUserPass("user_pass")
+                    .withDnsTtl(1, TimeUnit.MINUTES)
+                    .build()) {
+
+            SendMailRequest request = new SendMailRequest("message_id",
+                    new SendMailRequest.Recipient("user@email.io", new SendMailRequest.Attribute("name", "value")));
+
+            for (int i = 0; i < 20; i++) {
+                SendMailResponse response = harmonyClient.sendMail("ou_id", request).get();
+                assertThat(response.getResultCode(), equalTo(SendMailResponse.RESULT_CODE_SUCCESS));
+            }
+
+            assertTrue(slow.getRequestCount() <= 2);
+            assertTrue(fast.getRequestCount() >= 18);
+        }
+    }
+
+    @Test
+    public void testConnectTimeoutFailover() throws Exception {
+        List<Socket> backlog = new ArrayList<>();
+        try (ServerSocket blackhole = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                MockWebServer server = server(0)) {
+            // connects time out once the accept backlog of the never accepting socket is full
+            boolean full = false;
+            for (int i = 0; i < 16 && !full; i++) {
+                Socket socket = new Socket();
+                backlog.add(socket);
+                try {
+                    socket.connect(blackhole.getLocalSocketAddress(), 200);
+                } catch (SocketTimeoutException e) {
+                    full = true;
+                }
+            }
+            assumeTrue(full);
+
+            String blackholeUrl = "http://" + blackhole.getInetAddress().getHostAddress() + ":" + blackhole.getLocalPort();
+            for (Transport.Factory transport : Arrays.<Transport.Factory>asList(OkHttpTransport.factory(),
+                    JdkTransport.factory(Executors.newCachedThreadPool()),
+                    config -> new JdkTransport(config, Executors.newCachedThreadPool()))) {
+                try (HarmonyClient harmonyClient = new HarmonyClient.Builder()
+                        .withAuthBaseUrl("http://localhost:" + server.getPort())
+                        .withMsgBaseUrls(blackholeUrl, "http://localhost:" + server.getPort())
+                        .withClientId("client_id")
+                        .withClientPass("client_pass")
+                        .withUserName("user_name")
+                        .withUserPass("user_pass")
+                        .withTimeouts(200, 5000, TimeUnit.MILLISECONDS)
+                        .withTransport(transport)
+                        .build()) {
+
+                    SendMailRequest request = new SendMailRequest("message_id",
+                            new SendMailRequest.Recipient("user@email.io", new SendMailRequest.Attribute("name", "value")));
+
+                    SendMailResponse response = harmonyClient.sendMail("ou_id", request).get();
+                    assertThat(response.getResultCode(), equalTo(SendMailResponse.RESULT_CODE_SUCCESS));
+                }
+            }
+        } finally {
+            for (Socket socket : backlog) {
+                socket.close();
+            }
+        }
+    }
+
+    private static MockWebServer server(long delayMillis) {
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(200)
+                        .setBodyDelay(delayMillis, TimeUnit.MILLISECONDS)
+                        .setBody("{\"resultCode\": \"OK\"}");
+            }
+        });
+        return server;
+    }
+
+}
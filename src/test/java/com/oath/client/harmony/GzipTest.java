@@ -0,0 +1,161 @@
+package com.oath.client.harmony;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Request body compression test.
+ *
+ * @author Mike Shauneu
+ */
+public class GzipTest {
+
+    private static final String TOKEN = "{\"access_token\":\"access_token\"}";
+
+    private static final String SENT = "{\"resultCode\":\"OK\",\"messageId\":\"message_id\"}";
+
+    @Test
+    public void testOkHttpTransport() throws Exception {
+        testGzip(OkHttpTransport.factory());
+    }
+
+    @Test
+    public void testJdkTransport() throws Exception {
+        testGzip(JdkTransport.factory(Executors.newCachedThreadPool()));
+    }
+
+    @Test
+    public void testHttpUrlConnectionTransport() throws Exception {
+        testGzip(config -> new JdkTransport(config, Executors.newCachedThreadPool()));
+    }
+
+    @Test
+    public void testUnsupportedMediaType() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            List<RecordedRequest> sends = new ArrayList<>();
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    if ("POST".equals(request.getMethod())) {
+                        return new MockResponse().setResponseCode(200).setBody(TOKEN);
+                    }
+                    sends.add(request);
+                    if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+                        return new MockResponse().setResponseCode(415);
+                    }
+                    return new MockResponse().setResponseCode(200).setBody(SENT);
+                }
+            });
+
+            try (HarmonyClient harmonyClient = builder("http://localhost:" + server.getPort())
+                    .withTransport(OkHttpTransport.factory())
+                    .withGzip(0)
+                    .build()) {
+                harmonyClient.sendMail("ou_id", request(1)).get();
+                harmonyClient.sendMail("ou_id", request(1)).get();
+            }
+            // rejected once, then sent uncompressed
+            assertThat(sends.size(), equalTo(3));
+            assertThat(sends.get(0).getHeader("Content-Encoding"), equalTo("gzip"));
+            assertThat(sends.get(1).getHeader("Content-Encoding"), nullValue());
+            assertThat(sends.get(2).getHeader("Content-Encoding"), nullValue());
+        }
+    }
+
+    private static void testGzip(Transport.Factory factory) throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            List<RecordedRequest> sends = new ArrayList<>();
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    if ("POST".equals(request.getMethod())) {
+                        return new MockResponse().setResponseCode(200).setBody(TOKEN);
+                    }
+                    if (!"Bearer access_token".equals(request.getHeader("Authorization"))) {
+                        return new MockResponse().setResponseCode(HttpURLConnection.HTTP_FORBIDDEN);
+                    }
+                    sends.add(request);
+                    return new MockResponse().setResponseCode(200).setBody(SENT);
+                }
+            });
+
+            try (HarmonyClient harmonyClient = builder("http://localhost:" + server.getPort())
+                    .withTransport(factory)
+                    .withGzip(1024)
+                    .build()) {
+                harmonyClient.sendMail("ou_id", request(1)).get();
+                harmonyClient.sendMail("ou_id", request(100)).get();
+            }
+
+            assertThat(sends.size(), equalTo(2));
+            // under the threshold
+            RecordedRequest small = sends.get(0);
+            assertThat(small.getHeader("Content-Encoding"), nullValue());
+            assertThat(new ObjectMapper().readTree(small.getBody().readByteArray())
+                    .get("recipients").size(), equalTo(1));
+
+            RecordedRequest large = sends.get(1);
+            assertThat(large.getHeader("Content-Encoding"), equalTo("gzip"));
+            assertThat(large.getHeader("Content-Type"), equalTo("application/json"));
+            byte[] compressed = large.getBody().readByteArray();
+            byte[] json = gunzip(compressed);
+            JsonNode body = new ObjectMapper().readTree(json);
+            assertThat(body.get("recipients").size(), equalTo(100));
+            assertThat(compressed.length < json.length / 4, equalTo(true));
+        }
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) != -1;) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static HarmonyClient.Builder builder(String baseUrl) {
+        return new HarmonyClient.Builder()
+                .withAuthBaseUrl(baseUrl)
+                .withMsgBaseUrl(baseUrl)
+                .withClientId("client_id")
+                .withClientPass("client_pass")
+                .withUserName("user_name")
+                .withUserPass("user_pass");
+    }
+
+    private static SendMailRequest request(int recipients) {
+        SendMailRequest.Recipient[] to = new SendMailRequest.Recipient[recipients];
+        for (int i = 0; i < recipients; i++) {
+            to[i] = new SendMailRequest.Recipient("user" + i + "@email.io",
+                    new SendMailRequest.Attribute("first_name", "First"),
+                    new SendMailRequest.Attribute("last_name", "Last"),
+                    new SendMailRequest.Attribute("unsubscribe_url", "https://www.example.com/unsubscribe?user=" + i));
+        }
+        return new SendMailRequest("message_id", to);
+    }
+
+}
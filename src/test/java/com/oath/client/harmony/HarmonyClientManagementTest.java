@@ -0,0 +1,136 @@
+package com.oath.client.harmony;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.RuntimeMBeanException;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Test;
+
+/**
+ * {@code HarmonyClientMXBean} test.
+ *
+ * @author Mike Shauneu
+ */
+public class HarmonyClientManagementTest {
+
+    @Test
+    public void testMBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.oath.client.harmony:type=HarmonyClient,name=\"test\"");
+        List<Long> sendTimes = new CopyOnWriteArrayList<>();
+
+        HarmonyClient harmonyClient = new HarmonyClient.Builder()
+                .withClientId("client_id")
+                .withClientPass("client_pass")
+                .withUserName("user_name")
+                .withUserPass("user_pass")
+                .withJmx("test")
+                .withTransport(InMemoryTransport.factory(request -> {
+                    if ("POST".equals(request.getMethod())) {
+                        return new TransportResponse(200, "application/json",
+                                "{\"access_token\":\"access_token\"}".getBytes(StandardCharsets.UTF_8));
+                    }
+                    if (!"Bearer access_token".equals(request.getHeader("Authorization"))) {
+                        return new TransportResponse(HttpURLConnection.HTTP_FORBIDDEN, null, null);
+                    }
+                    if (request.getUrl().contains("/unknown/")) {
+                        return new TransportResponse(HttpURLConnection.HTTP_NOT_FOUND, null, null);
+                    }
+                    sendTimes.add(System.nanoTime());
+                    return new TransportResponse(200, "application/json",
+                            "{\"resultCode\":\"OK\"}".getBytes(StandardCharsets.UTF_8));
+                }))
+                .build();
+        assertTrue(server.isRegistered(name));
+        assertThat(server.getAttribute(name, "TokenAgeMillis"), equalTo(-1L));
+
+        SendMailRequest request = new SendMailRequest("message_id",
+                new SendMailRequest.Recipient("user@email.io", new SendMailRequest.Attribute("name", "value")));
+        harmonyClient.sendMail("ou_id", request).get();
+        harmonyClient.sendMail("ou_id", new SendMailRequest("unknown", request.getRecipients(), null))
+                .handle((r, e) -> null).get();
+
+        assertTrue((Long) server.getAttribute(name, "TokenAgeMillis") >= 0);
+        assertThat(server.getAttribute(name, "InFlightCalls"), equalTo(0));
+        assertThat(server.getAttribute(name, "JournalPending"), equalTo(-1));
+        assertThat(server.getAttribute(name, "PoolConnections"), equalTo(-1));
+        assertThat(server.getAttribute(name, "ReadTimeoutMillis"), equalTo(-1L));
+        TabularData errorCounts = (TabularData) server.getAttribute(name, "ErrorCounts");
+        CompositeData invalidRequests = errorCounts.get(new Object[] { "INVALID_REQUEST" });
+        assertThat(invalidRequests.get("value"), equalTo(1L));
+
+        // in memory transport has no dispatcher
+        try {
+            server.setAttribute(name, new Attribute("MaxRequests", 8));
+            throw new AssertionError("UnsupportedOperationException expected");
+        } catch (RuntimeMBeanException e) {
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+
+        server.setAttribute(name, new Attribute("RateLimit", 20.0));
+        assertThat(server.getAttribute(name, "RateLimit"), equalTo(20.0));
+        long start = System.nanoTime();
+        sendTimes.clear();
+        List<CompletableFuture<SendMailResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(harmonyClient.sendMail("ou_id", request));
+        }
+        assertTrue(harmonyClient.getScheduledSends() > 0);
+        for (CompletableFuture<SendMailResponse> future : futures) {
+            assertThat(future.get().getResultCode(), equalTo("OK"));
+        }
+        // 4 intervals of 50ms between the first and the last send
+        assertTrue(System.nanoTime() - start >= 190_000_000L);
+        // spaced by the rate, not released in a burst per timer tick
+        for (int i = 1; i < sendTimes.size(); i++) {
+            assertTrue(sendTimes.get(i) - sendTimes.get(i - 1) >= 40_000_000L);
+        }
+        server.setAttribute(name, new Attribute("RateLimit", 0.0));
+
+        harmonyClient.close();
+        assertThat(server.isRegistered(name), equalTo(false));
+    }
+
+    @Test
+    public void testOkHttpTuning() throws Exception {
+        try (OkHttpTransport transport = new OkHttpTransport(new Transport.Config(refresh -> "Bearer token", 0))) {
+            assertThat(transport.getMaxRequests(), equalTo(64));
+            transport.setMaxRequests(8);
+            transport.setMaxRequestsPerHost(2);
+            assertThat(transport.getMaxRequests(), equalTo(8));
+            assertThat(transport.getMaxRequestsPerHost(), equalTo(2));
+            assertThat(transport.getQueuedCalls(), equalTo(0));
+            assertThat(transport.getConnectionCount(), equalTo(0));
+
+            assertThat(transport.getReadTimeoutMillis(), equalTo(Transport.Config.DEFAULT_TIMEOUT_MILLIS));
+            transport.setReadTimeoutMillis(2000);
+            transport.setConnectTimeoutMillis(1000);
+            assertThat(transport.getReadTimeoutMillis(), equalTo(2000L));
+            assertThat(transport.getConnectTimeoutMillis(), equalTo(1000L));
+            // the dispatcher is kept
+            assertThat(transport.getMaxRequests(), equalTo(8));
+
+            String defaultLevel = transport.getLogLevel();
+            transport.setLogLevel("headers");
+            assertThat(transport.getLogLevel(), equalTo("HEADERS"));
+            transport.setLogLevel(null);
+            assertThat(transport.getLogLevel(), equalTo(defaultLevel));
+        }
+    }
+
+}
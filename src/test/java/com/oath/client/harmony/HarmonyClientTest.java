@@ -1,12 +1,15 @@
 package com.oath.client.harmony;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertThat;
 
 import java.net.HttpURLConnection;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import org.junit.Test;
 
@@ -138,4 +141,86 @@ public class HarmonyClientTest {
         }
     }
 
+    @Test
+    public void testErrorCategories() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.enqueue(new MockResponse().setResponseCode(400)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody("{\"errors\":[{\"resultCode\":\"INVALID_RECIPIENT\",\"resultString\":\"bad recipient\"},"
+                            + "{\"resultString\":\"second error\"}]}"));
+            server.enqueue(new MockResponse().setResponseCode(429));
+            server.enqueue(new MockResponse().setResponseCode(500).setBody("not json"));
+
+            HarmonyClient harmonyClient = new HarmonyClient.Builder()
+                    .withAuthBaseUrl("http://localhost:" + server.getPort())
+                    .withMsgBaseUrl("http://localhost:" + server.getPort())
+                    .withClientId("client_id")
+                    .withClientPass("client_pass")
+                    .withUserName("user_name")
+                    .withUserPass("user_pass")
+                    .withStacklessExceptions(true)
+                    .build();
+
+            SendMailRequest request = new SendMailRequest("message_id",
+                    new SendMailRequest.Recipient("user@email.io", new SendMailRequest.Attribute("name", "value")));
+
+            SendMailException e = sendAndCatch(harmonyClient, request);
+            assertThat(e.getCategory(), equalTo(SendMailException.Category.RECIPIENT_REJECTED));
+            assertThat(e.getHttpStatus(), equalTo(400));
+            assertThat(e.getErrors().size(), equalTo(2));
+            assertThat(e.getErrors().get(1).getResultString(), equalTo("second error"));
+            assertThat(e.isRetryable(), equalTo(false));
+            assertThat(e.getStackTrace().length, equalTo(0));
+
+            e = sendAndCatch(harmonyClient, request);
+            assertThat(e.getCategory(), equalTo(SendMailException.Category.THROTTLED));
+            assertThat(e.isRetryable(), equalTo(true));
+
+            e = sendAndCatch(harmonyClient, request);
+            assertThat(e.getCategory(), equalTo(SendMailException.Category.SERVER_ERROR));
+            assertThat(e.getHttpStatus(), equalTo(500));
+            assertThat(e.getErrors().isEmpty(), equalTo(true));
+
+            server.shutdown();
+            e = sendAndCatch(harmonyClient, request);
+            assertThat(e.getCategory(), equalTo(SendMailException.Category.TRANSPORT));
+            assertThat(e.getHttpStatus(), equalTo(0));
+
+            assertThat(harmonyClient.getErrorCount(SendMailException.Category.RECIPIENT_REJECTED), equalTo(1L));
+            assertThat(harmonyClient.getErrorCount(SendMailException.Category.THROTTLED), equalTo(1L));
+            assertThat(harmonyClient.getErrorCount(SendMailException.Category.SERVER_ERROR), equalTo(1L));
+            assertThat(harmonyClient.getErrorCount(SendMailException.Category.TRANSPORT), equalTo(1L));
+            assertThat(harmonyClient.getErrorCount(SendMailException.Category.AUTH), equalTo(0L));
+        }
+    }
+
+    @Test
+    public void testRecipientResultCodes() {
+        assertThat(SendMailException.categoryOf(400, Arrays.asList(error("invalid_recipient", "bad address"))),
+                equalTo(SendMailException.Category.RECIPIENT_REJECTED));
+        // a message mentioning recipients is not enough
+        assertThat(SendMailException.categoryOf(400, Arrays.asList(error("VALIDATION_ERROR", "recipients must not be empty"))),
+                equalTo(SendMailException.Category.INVALID_REQUEST));
+        assertThat(SendMailException.categoryOf(400, Arrays.asList(error(null, "unknown recipient attribute"))),
+                equalTo(SendMailException.Category.INVALID_REQUEST));
+    }
+
+    private static SendMailResponse.Error error(String resultCode, String resultString) {
+        SendMailResponse.Error error = new SendMailResponse.Error();
+        error.setResultCode(resultCode);
+        error.setResultString(resultString);
+        return error;
+    }
+
+    private static SendMailException sendAndCatch(HarmonyClient harmonyClient, SendMailRequest request)
+            throws InterruptedException {
+        try {
+            harmonyClient.sendMail("ou_id", request).get();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(SendMailException.class));
+            return (SendMailException) e.getCause();
+        }
+        throw new AssertionError("SendMailException expected");
+    }
+
 }
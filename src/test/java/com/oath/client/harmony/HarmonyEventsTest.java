@@ -0,0 +1,194 @@
+package com.oath.client.harmony;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * {@code HarmonyEvents} test.
+ *
+ * @author Mike Shauneu
+ */
+public class HarmonyEventsTest {
+
+    @Test
+    public void testEvents() throws Exception {
+        assertTrue(HarmonyEvents.isAvailable());
+
+        HarmonyClient harmonyClient = new HarmonyClient.Builder()
+                .withClientId("client_id")
+                .withClientPass("client_pass")
+                .withUserName("user_name")
+                .withUserPass("user_pass")
+                .withTransport(InMemoryTransport.factory(request -> {
+                    if ("POST".equals(request.getMethod())) {
+                        return new TransportResponse(200, "application/json",
+                                "{\"access_token\":\"access_token\"}".getBytes(StandardCharsets.UTF_8));
+                    }
+                    if (!"Bearer access_token".equals(request.getHeader("Authorization"))) {
+                        return new TransportResponse(HttpURLConnection.HTTP_FORBIDDEN, null, null);
+                    }
+                    if (request.getUrl().contains("/unknown/")) {
+                        return new TransportResponse(HttpURLConnection.HTTP_NOT_FOUND, null, null);
+                    }
+                    return new TransportResponse(200, "application/json",
+                            "{\"resultCode\":\"OK\"}".getBytes(StandardCharsets.UTF_8));
+                }))
+                .build();
+
+        SendMailRequest request = new SendMailRequest("message_id",
+                new SendMailRequest.Recipient("user@email.io", new SendMailRequest.Attribute("name", "value")));
+
+        // nothing is recorded without a recording
+        harmonyClient.sendMail("ou_id", request).get();
+
+        Path dump = Files.createTempFile("harmony", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.oath.client.harmony.SendMail").withoutThreshold();
+            recording.enable("com.oath.client.harmony.TokenFetch").withoutThreshold();
+            recording.enable("com.oath.client.harmony.AuthRetry").withoutThreshold();
+            recording.start();
+
+            harmonyClient.sendMail("ou_id", request).get();
+            harmonyClient.sendMail("ou_id", new SendMailRequest("unknown", request.getRecipients(), null))
+                    .handle((r, e) -> null).get();
+
+            recording.stop();
+            recording.dump(dump);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+            List<RecordedEvent> sendMails = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("com.oath.client.harmony.SendMail"))
+                    .collect(Collectors.toList());
+            assertThat(sendMails.size(), equalTo(2));
+            assertThat(sendMails.get(0).getString("campaign"), equalTo("ou_id"));
+            assertThat(sendMails.get(0).getString("messageId"), equalTo("message_id"));
+            assertThat(sendMails.get(0).getInt("recipients"), equalTo(1));
+            assertTrue(sendMails.get(0).getLong("requestBytes") > 0);
+            assertThat(sendMails.get(0).getInt("status"), equalTo(200));
+            assertThat(sendMails.get(0).getString("result"), equalTo("OK"));
+            assertThat(sendMails.get(1).getInt("status"), equalTo(404));
+            assertThat(sendMails.get(1).getString("result"), equalTo("INVALID_REQUEST"));
+            // the token was fetched before the recording started
+            assertThat(events.stream()
+                    .filter(e -> e.getEventType().getName().equals("com.oath.client.harmony.TokenFetch"))
+                    .count(), equalTo(0L));
+        } finally {
+            Files.delete(dump);
+        }
+    }
+
+    @Test
+    public void testQueueWaits() throws Exception {
+        ScheduledExecutorService server = Executors.newSingleThreadScheduledExecutor();
+        Path dump = Files.createTempFile("harmony", ".jfr");
+        try (Recording recording = new Recording();
+                MockWebServer mockServer = new MockWebServer();
+                HarmonyClient deferring = client(AdmissionPolicy.DEFER, server)
+                        .withRateLimit(10)
+                        .build();
+                HarmonyClient blocking = client(AdmissionPolicy.BLOCK, server).build()) {
+            mockServer.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    return new MockResponse().setResponseCode(200).setBody("POST".equals(request.getMethod())
+                            ? "{\"access_token\":\"access_token\"}" : "{\"resultCode\":\"OK\"}");
+                }
+            });
+            recording.enable("com.oath.client.harmony.QueueWait").withoutThreshold();
+            recording.start();
+
+            // deferred by the budget, then held back by the rate limit
+            List<CompletableFuture<SendMailResponse>> sends = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                sends.add(deferring.sendMail("ou_id", request()));
+            }
+            for (CompletableFuture<SendMailResponse> send : sends) {
+                send.get(5, TimeUnit.SECONDS);
+            }
+            // the second send blocks until the first completes
+            CompletableFuture<SendMailResponse> first = blocking.sendMail("ou_id", request());
+            blocking.sendMail("ou_id", request()).get(5, TimeUnit.SECONDS);
+            first.get();
+            // responses are handed over to the executor
+            try (HarmonyClient harmonyClient = new HarmonyClient.Builder()
+                    .withAuthBaseUrl(mockServer.url("/").toString())
+                    .withMsgBaseUrl(mockServer.url("/").toString())
+                    .withClientId("client_id")
+                    .withClientPass("client_pass")
+                    .withUserName("user_name")
+                    .withUserPass("user_pass")
+                    .withTransport(JdkTransport.factory())
+                    .build()) {
+                harmonyClient.sendMail("ou_id", request()).get(5, TimeUnit.SECONDS);
+            }
+
+            recording.stop();
+            recording.dump(dump);
+
+            Set<String> queues = RecordingFile.readAllEvents(dump).stream()
+                    .filter(e -> e.getEventType().getName().equals("com.oath.client.harmony.QueueWait"))
+                    .map(e -> e.getString("queue"))
+                    .collect(Collectors.toSet());
+            assertTrue(queues.toString(), queues.containsAll(Arrays.asList("Payload Budget Deferred", "Rate Limit",
+                    "Payload Budget", "HttpClient Executor")));
+        } finally {
+            Files.delete(dump);
+            server.shutdownNow();
+        }
+    }
+
+    private static HarmonyClient.Builder client(AdmissionPolicy policy, ScheduledExecutorService server) {
+        return new HarmonyClient.Builder()
+                .withClientId("client_id")
+                .withClientPass("client_pass")
+                .withUserName("user_name")
+                .withUserPass("user_pass")
+                .withPayloadBudget(1, policy)
+                .withTransport(config -> new Transport() {
+                    @Override
+                    public TransportResponse execute(TransportRequest request) {
+                        return new TransportResponse(200, "application/json",
+                                "{\"access_token\":\"access_token\"}".getBytes(StandardCharsets.UTF_8));
+                    }
+                    @Override
+                    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+                        CompletableFuture<TransportResponse> futureResponse = new CompletableFuture<>();
+                        server.schedule(() -> futureResponse.complete(new TransportResponse(200, "application/json",
+                                "{\"resultCode\":\"OK\"}".getBytes(StandardCharsets.UTF_8))), 20, TimeUnit.MILLISECONDS);
+                        return futureResponse;
+                    }
+                });
+    }
+
+    private static SendMailRequest request() {
+        return new SendMailRequest("message_id",
+                new SendMailRequest.Recipient("user@email.io", new SendMailRequest.Attribute("name", "value")));
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.oath.client.harmony;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Hedged send test.
+ *
+ * @author Mike Shauneu
+ */
+public class HedgingTest {
+
+    @Test
+    public void testHedging() throws Exception {
+        ScheduledExecutorService server = Executors.newSingleThreadScheduledExecutor();
+        List<TransportRequest> requests = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<TransportResponse>> hanging = new CopyOnWriteArrayList<>();
+        // number of next calls which hang
+        AtomicInteger hang = new AtomicInteger();
+
+        HarmonyClient harmonyClient = new HarmonyClient.Builder()
+                .withClientId("client_id")
+                .withClientPass("client_pass")
+                .withUserName("user_name")
+                .withUserPass("user_pass")
+                .withMsgBaseUrls("http://a.harmony.test", "http://b.harmony.test")
+                .withHedging(0.9, 0.05)
+                .withTransport(config -> new Transport() {
+                    @Override
+                    public TransportResponse execute(TransportRequest request) {
+                        return new TransportResponse(200, "application/json",
+                                "{\"access_token\":\"access_token\"}".getBytes(StandardCharsets.UTF_8));
+                    }
+                    @Override
+                    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+                        requests.add(request);
+                        CompletableFuture<TransportResponse> futureResponse = new CompletableFuture<>();
+                        if (hang.getAndDecrement() > 0) {
+                            hanging.add(futureResponse);
+                        } else {
+                            server.schedule(() -> futureResponse.complete(new TransportResponse(200,
+                                    "application/json", "{\"resultCode\":\"OK\"}".getBytes(StandardCharsets.UTF_8))),
+                                    2, TimeUnit.MILLISECONDS);
+                        }
+                        return futureResponse;
+                    }
+                })
+                .build();
+        try {
+            // no hedging until latencies are known
+            for (int i = 0; i < Hedging.RECOMPUTE_INTERVAL; i++) {
+                harmonyClient.sendMail("ou_id", request()).get();
+            }
+            assertThat(harmonyClient.getHedgedSends(), equalTo(0L));
+
+            requests.clear();
+            hang.set(1);
+            SendMailRequest request = request();
+            SendMailResponse response = harmonyClient.sendMail("ou_id", request).get(5, TimeUnit.SECONDS);
+            assertThat(response.getResultCode(), equalTo("OK"));
+            assertThat(harmonyClient.getHedgedSends(), equalTo(1L));
+
+            assertThat(requests.size(), equalTo(2));
+            String first = HttpUrl.parse(requests.get(0).getUrl()).host();
+            String second = HttpUrl.parse(requests.get(1).getUrl()).host();
+            assertThat(second, not(equalTo(first)));
+            // both attempts carry the same client request id
+            ObjectMapper mapper = new ObjectMapper();
+            JsonNode body1 = mapper.readTree(requests.get(0).getBody());
+            JsonNode body2 = mapper.readTree(requests.get(1).getBody());
+            assertThat(body1.get("clientRequestId"), notNullValue());
+            assertThat(body2.get("clientRequestId").asText(), equalTo(body1.get("clientRequestId").asText()));
+            // generated for the send, the request is left alone
+            assertThat(request.getClientRequestId(), nullValue());
+            requests.clear();
+            harmonyClient.sendMail("ou_id", request).get(5, TimeUnit.SECONDS);
+            JsonNode resent = mapper.readTree(requests.get(0).getBody());
+            assertThat(resent.get("clientRequestId").asText(), not(equalTo(body1.get("clientRequestId").asText())));
+            // the losing attempt is cancelled
+            assertThat(hanging.size(), equalTo(1));
+            assertTrue(hanging.get(0).isCancelled());
+
+            // the budget caps hedges, 20 sends earn one more
+            hanging.clear();
+            hang.set(Integer.MAX_VALUE);
+            for (int i = 0; i < 20; i++) {
+                harmonyClient.sendMail("ou_id", request()).handle((r, e) -> null);
+            }
+            Thread.sleep(500);
+            assertTrue(harmonyClient.getHedgedSends() <= Hedging.MAX_TOKENS + 1);
+            assertThat(harmonyClient.getInFlightCalls(), equalTo(20));
+
+            // sends dispatched once closed go without a hedge
+            harmonyClient.close();
+            hang.set(0);
+            response = harmonyClient.sendMail("ou_id", request()).get(5, TimeUnit.SECONDS);
+            assertThat(response.getResultCode(), equalTo("OK"));
+        } finally {
+            harmonyClient.close();
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRefund() {
+        Hedging hedging = new Hedging(0.9, 1);
+        try {
+            hedging.onSend();
+            assertTrue(hedging.tryHedge());
+            assertThat(hedging.tryHedge(), equalTo(false));
+
+            // a hedge without a rate limit slot gives its token back
+            hedging.refund();
+            assertThat(hedging.getHedges(), equalTo(0L));
+            assertTrue(hedging.tryHedge());
+        } finally {
+            hedging.close();
+        }
+    }
+
+    private static SendMailRequest request() {
+        return new SendMailRequest("message_id",
+                new SendMailRequest.Recipient("user@email.io", new SendMailRequest.Attribute("name", "value")));
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.oath.client.harmony;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Payload budget admission control test.
+ *
+ * @author Mike Shauneu
+ */
+public class PayloadBudgetTest {
+
+    private final BlockingQueue<CompletableFuture<TransportResponse>> calls = new LinkedBlockingQueue<>();
+
+    private final List<String> threads = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void testReject() throws Exception {
+        HarmonyClient harmonyClient = client(AdmissionPolicy.REJECT);
+
+        CompletableFuture<SendMailResponse> first = harmonyClient.sendMail("ou_id", request());
+        assertTrue(harmonyClient.getPayloadBytes() > 0);
+        try {
+            harmonyClient.sendMail("ou_id", request()).get();
+            throw new AssertionError("SendMailException expected");
+        } catch (ExecutionException e) {
+            assertThat(((SendMailException) e.getCause()).getCategory(), equalTo(SendMailException.Category.OVERLOADED));
+        }
+
+        complete();
+        first.get();
+        assertThat(harmonyClient.getPayloadBytes(), equalTo(0L));
+        assertThat(harmonyClient.getErrorCount(SendMailException.Category.OVERLOADED), equalTo(1L));
+    }
+
+    @Test
+    public void testDefer() throws Exception {
+        HarmonyClient harmonyClient = client(AdmissionPolicy.DEFER);
+
+        CompletableFuture<SendMailResponse> first = harmonyClient.sendMail("ou_id", request());
+        CompletableFuture<SendMailResponse> second = harmonyClient.sendMail("ou_id", request());
+        assertThat(harmonyClient.getDeferredSends(), equalTo(1));
+        assertThat(calls.size(), equalTo(1));
+
+        complete();
+        first.get();
+        complete();
+        second.get();
+        assertThat(harmonyClient.getDeferredSends(), equalTo(0));
+        assertThat(harmonyClient.getPayloadBytes(), equalTo(0L));
+        // the deferred send was not run on the thread completing the first one
+        assertThat(threads.get(1), equalTo("harmony-budget"));
+    }
+
+    @Test
+    public void testDeferredBytes() throws Exception {
+        HarmonyClient harmonyClient = client(AdmissionPolicy.DEFER);
+
+        List<CompletableFuture<SendMailResponse>> sends = new ArrayList<>();
+        sends.add(harmonyClient.sendMail("ou_id", request()));
+        long payload = harmonyClient.getPayloadBytes();
+        for (int i = 0; i < 1000; i++) {
+            sends.add(harmonyClient.sendMail("ou_id", request()));
+        }
+        assertThat(harmonyClient.getDeferredSends(), equalTo(1000));
+        // the send in flight and the one first in line, the others are not serialized yet
+        assertThat(harmonyClient.getPayloadBytes(), equalTo(2 * payload));
+
+        for (CompletableFuture<SendMailResponse> send : sends) {
+            complete();
+            send.get();
+            assertTrue(harmonyClient.getPayloadBytes() <= 2 * payload);
+        }
+        assertThat(harmonyClient.getDeferredSends(), equalTo(0));
+        assertThat(harmonyClient.getPayloadBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void testDeferLimit() throws Exception {
+        HarmonyClient harmonyClient = client(AdmissionPolicy.DEFER, 1);
+
+        CompletableFuture<SendMailResponse> first = harmonyClient.sendMail("ou_id", request());
+        CompletableFuture<SendMailResponse> second = harmonyClient.sendMail("ou_id", request());
+        try {
+            harmonyClient.sendMail("ou_id", request()).get();
+            throw new AssertionError("SendMailException expected");
+        } catch (ExecutionException e) {
+            assertThat(((SendMailException) e.getCause()).getCategory(), equalTo(SendMailException.Category.OVERLOADED));
+        }
+        assertThat(harmonyClient.getDeferredSends(), equalTo(1));
+
+        harmonyClient.close();
+        assertTrue(second.isCancelled());
+        assertThat(harmonyClient.getDeferredSends(), equalTo(0));
+        complete();
+        first.get();
+        assertThat(harmonyClient.getPayloadBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        HarmonyClient harmonyClient = client(AdmissionPolicy.BLOCK);
+
+        CompletableFuture<SendMailResponse> first = harmonyClient.sendMail("ou_id", request());
+        CompletableFuture<CompletableFuture<SendMailResponse>> second =
+                CompletableFuture.supplyAsync(() -> harmonyClient.sendMail("ou_id", request()));
+        Thread.sleep(100);
+        assertThat(second.isDone(), equalTo(false));
+
+        complete();
+        first.get();
+        complete();
+        second.get(5, TimeUnit.SECONDS).get();
+        assertThat(harmonyClient.getPayloadBytes(), equalTo(0L));
+    }
+
+    private void complete() throws InterruptedException {
+        calls.poll(5, TimeUnit.SECONDS).complete(new TransportResponse(200, "application/json",
+                "{\"resultCode\":\"OK\"}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private HarmonyClient client(AdmissionPolicy policy) {
+        return client(policy, PayloadBudget.DEFAULT_MAX_DEFERRED);
+    }
+
+    private HarmonyClient client(AdmissionPolicy policy, int maxDeferred) {
+        return new HarmonyClient.Builder()
+                .withClientId("client_id")
+                .withClientPass("client_pass")
+                .withUserName("user_name")
+                .withUserPass("user_pass")
+                .withPayloadBudget(16, policy, maxDeferred)
+                .withTransport(config -> new Transport() {
+                    @Override
+                    public TransportResponse execute(TransportRequest request) {
+                        throw new UnsupportedOperationException();
+                    }
+                    @Override
+                    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+                        CompletableFuture<TransportResponse> futureResponse = new CompletableFuture<>();
+                        threads.add(Thread.currentThread().getName());
+                        calls.add(futureResponse);
+                        return futureResponse;
+                    }
+                })
+                .build();
+    }
+
+    private static SendMailRequest request() {
+        return new SendMailRequest("message_id",
+                new SendMailRequest.Recipient("user@email.io", new SendMailRequest.Attribute("name", "value")));
+    }
+
+}
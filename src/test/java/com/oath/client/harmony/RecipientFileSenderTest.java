@@ -0,0 +1,121 @@
+package com.oath.client.harmony;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * {@code RecipientFileSender} test.
+ *
+ * @author Mike Shauneu
+ */
+public class RecipientFileSenderTest {
+
+    private final Set<String> sent = ConcurrentHashMap.newKeySet();
+
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+    private final HarmonyClient harmonyClient = new HarmonyClient.Builder()
+            .withClientId("client_id")
+            .withClientPass("client_pass")
+            .withUserName("user_name")
+            .withUserPass("user_pass")
+            .withTransport(InMemoryTransport.factory(request -> {
+                JsonNode body = new ObjectMapper().readTree(request.getBody());
+                batchSizes.add(body.get("recipients").size());
+                for (JsonNode recipient : body.get("recipients")) {
+                    sent.add(recipient.get("emailAddress").asText() + "/" + recipient.get("customerKey").asText()
+                            + "/" + recipient.get("attributes").get(0).get("attributeValue").asText());
+                }
+                return new TransportResponse(200, "application/json", "{\"resultCode\":\"OK\"}".getBytes());
+            }))
+            .build();
+
+    @Test
+    public void testCsv() throws Exception {
+        StringBuilder csv = new StringBuilder("emailAddress,customerKey,name\n");
+        for (int i = 0; i < 95; i++) {
+            csv.append("user").append(i).append("@email.io,key").append(i).append(",\"Name, ").append(i).append("\"\n");
+        }
+        csv.append("malformed\n");
+        Path file = write(".csv", csv.toString());
+        try {
+            List<Long> checkpoints = Collections.synchronizedList(new ArrayList<>());
+            RecipientFileSender.Result result = sender().withCheckpointListener(checkpoints::add).build().send(file);
+
+            assertThat(result.getRows(), equalTo(95L));
+            assertThat(result.getSkippedRows(), equalTo(1L));
+            assertThat(result.getFailedSends(), equalTo(0L));
+            assertThat(result.getOffset(), equalTo(Files.size(file)));
+            assertThat(sent.size(), equalTo(95));
+            assertTrue(sent.contains("user42@email.io/key42/Name, 42"));
+            for (int size : batchSizes) {
+                assertTrue(size <= SendMailValidator.MAX_RECIPIENTS);
+            }
+            for (int i = 1; i < checkpoints.size(); i++) {
+                assertTrue(checkpoints.get(i) > checkpoints.get(i - 1));
+            }
+            assertThat(checkpoints.get(checkpoints.size() - 1), equalTo(Files.size(file)));
+
+            // resume from a checkpoint in the middle of the file
+            long resume = checkpoints.get(checkpoints.size() / 2);
+            int remaining = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).substring((int) resume).split("\n").length - 1;
+            sent.clear();
+            result = sender().build().send(file, resume);
+            assertThat(result.getRows(), equalTo((long) remaining));
+            assertThat(sent.size(), equalTo(remaining));
+            assertTrue(sent.contains("user94@email.io/key94/Name, 94"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testJsonl() throws Exception {
+        StringBuilder jsonl = new StringBuilder();
+        for (int i = 0; i < 25; i++) {
+            jsonl.append("{\"emailAddress\":\"user").append(i).append("@email.io\",\"customerKey\":\"key").append(i)
+                    .append("\",\"attributes\":[{\"attributeName\":\"n\",\"attributeValue\":\"v").append(i).append("\"}]}\n");
+        }
+        Path file = write(".jsonl", jsonl.toString());
+        try {
+            RecipientFileSender.Result result = sender().build().send(file);
+
+            assertThat(result.getRows(), equalTo(25L));
+            assertThat(sent.size(), equalTo(25));
+            assertTrue(sent.contains("user7@email.io/key7/v7"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private RecipientFileSender.Builder sender() {
+        return new RecipientFileSender.Builder(harmonyClient)
+                .withCampaign("ou_id")
+                .withMessageId("message_id")
+                .withChunkSize(256)
+                .withParallelism(3)
+                .withMaxInFlight(4);
+    }
+
+    private static Path write(String suffix, String content) throws Exception {
+        Path file = Files.createTempFile("recipients", suffix);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+}
@@ -0,0 +1,290 @@
+package com.oath.client.harmony;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.net.HttpURLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+/**
+ * {@code ResultJournal} test.
+ *
+ * @author Mike Shauneu
+ */
+public class ResultJournalTest {
+
+    @Test
+    public void testJournal() throws Exception {
+        Path directory = Files.createTempDirectory("harmony-journal");
+        try {
+            ResultJournal journal = new ResultJournal.Builder(directory)
+                    .withFsyncInterval(0, TimeUnit.SECONDS)
+                    .withLinger(1, TimeUnit.MILLISECONDS)
+                    .build();
+
+            HarmonyClient harmonyClient = new HarmonyClient.Builder()
+                    .withClientId("client_id")
+                    .withClientPass("client_pass")
+                    .withUserName("user_name")
+                    .withUserPass("user_pass")
+                    .withResultJournal(journal)
+                    .withTransport(InMemoryTransport.factory(request -> {
+                        if ("POST".equals(request.getMethod())) {
+                            return new TransportResponse(200, "application/json",
+                                    "{\"access_token\":\"access_token\"}".getBytes(StandardCharsets.UTF_8));
+                        }
+                        if (request.getUrl().contains("/unknown/")) {
+                            return new TransportResponse(HttpURLConnection.HTTP_NOT_FOUND, null, null);
+                        }
+                        return new TransportResponse(200, "application/json", ("{\"resultCode\":\"OK\","
+                                + "\"serviceTransactionId\":\"tx\",\"deploymentId\":\"deployment_id\"}")
+                                .getBytes(StandardCharsets.UTF_8));
+                    }))
+                    .build();
+
+            SendMailRequest.Recipient recipient = new SendMailRequest.Recipient("user@email.io",
+                    new SendMailRequest.Attribute("name", "value"));
+            harmonyClient.sendMail("ou_id", new SendMailRequest("message_id", recipient)).get();
+            harmonyClient.sendMail("ou_id", new SendMailRequest("unknown", recipient)).handle((r, e) -> null).get();
+            journal.close();
+            assertThat(journal.getWritten(), equalTo(2L));
+            assertThat(journal.getPending(), equalTo(0));
+
+            List<ResultJournal.Entry> entries = ResultJournal.query(directory, e -> true);
+            assertThat(entries.size(), equalTo(2));
+            assertThat(entries.get(0).getCampaign(), equalTo("ou_id"));
+            assertThat(entries.get(0).getMessageId(), equalTo("message_id"));
+            assertThat(entries.get(0).getServiceTransactionId(), equalTo("tx"));
+            assertThat(entries.get(0).getDeploymentId(), equalTo("deployment_id"));
+            assertThat(entries.get(0).getResultCode(), equalTo("OK"));
+            assertThat(entries.get(0).getStatus(), equalTo(200));
+            assertThat(entries.get(0).getFailure(), nullValue());
+            assertThat(entries.get(1).getMessageId(), equalTo("unknown"));
+            assertThat(entries.get(1).getStatus(), equalTo(404));
+            assertThat(entries.get(1).getFailure(), equalTo("INVALID_REQUEST"));
+            assertThat(entries.get(1).isSuccess(), equalTo(false));
+
+            // appended after close
+            journal.append("ou_id", "message_id", null, new SendMailException("late"));
+            assertThat(journal.getDropped(), equalTo(1L));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testRotationAndTornRecord() throws Exception {
+        Path directory = Files.createTempDirectory("harmony-journal");
+        try {
+            int threads = 8;
+            int perThread = 2000;
+            try (ResultJournal journal = new ResultJournal.Builder(directory)
+                    .withRingSize(64)
+                    .withMaxFileSize(16 * 1024)
+                    .withFsyncInterval(-1, TimeUnit.SECONDS)
+                    .build()) {
+                List<Thread> producers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    String campaign = "campaign_" + t;
+                    Thread producer = new Thread(() -> {
+                        for (int i = 0; i < perThread; i++) {
+                            journal.append(campaign, String.valueOf(i), null, new SendMailException("failure " + i));
+                        }
+                    });
+                    producers.add(producer);
+                    producer.start();
+                }
+                for (Thread producer : producers) {
+                    producer.join();
+                }
+            }
+
+            List<Path> files = files(directory);
+            assertTrue(files.size() > 1);
+            List<ResultJournal.Entry> entries = ResultJournal.query(directory, e -> true);
+            assertThat(entries.size(), equalTo(threads * perThread));
+            // every producer's results are in order
+            for (int t = 0; t < threads; t++) {
+                String campaign = "campaign_" + t;
+                List<String> ids = entries.stream().filter(e -> e.getCampaign().equals(campaign))
+                        .map(ResultJournal.Entry::getMessageId).collect(Collectors.toList());
+                assertThat(ids.size(), equalTo(perThread));
+                for (int i = 0; i < perThread; i++) {
+                    assertThat(ids.get(i), equalTo(String.valueOf(i)));
+                }
+            }
+            assertThat(ResultJournal.query(directory, e -> e.getMessageId().equals("7")).size(), equalTo(threads));
+
+            // a torn last record is skipped, the other files are still read
+            Path first = files.get(0);
+            try (FileChannel channel = FileChannel.open(first, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 3);
+            }
+            assertThat(ResultJournal.query(directory, e -> true).size(), equalTo(threads * perThread - 1));
+
+            // reopening starts a new file
+            new ResultJournal.Builder(directory).build().close();
+            assertThat(files(directory).size(), equalTo(files.size() + 1));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testOversizedRecord() throws Exception {
+        Path directory = Files.createTempDirectory("harmony-journal");
+        try {
+            ResultJournal journal = new ResultJournal.Builder(directory).build();
+            char[] message = new char[1 << 20];
+            Arrays.fill(message, 'x');
+            journal.append("ou_id", "large", null, new SendMailException(new String(message)));
+            journal.append("ou_id", "small", null, new SendMailException("failure"));
+            journal.close();
+            assertThat(journal.getWritten(), equalTo(1L));
+            assertThat(journal.getDropped(), equalTo(1L));
+
+            // the record after the dropped one is replayed
+            List<ResultJournal.Entry> entries = ResultJournal.query(directory, e -> true);
+            assertThat(entries.size(), equalTo(1));
+            assertThat(entries.get(0).getMessageId(), equalTo("small"));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testConcurrentClose() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            Path directory = Files.createTempDirectory("harmony-journal");
+            try {
+                ResultJournal journal = new ResultJournal.Builder(directory)
+                        .withRingSize(64)
+                        .withFsyncInterval(-1, TimeUnit.SECONDS)
+                        .build();
+                int threads = 4;
+                int perThread = 1000;
+                CountDownLatch started = new CountDownLatch(threads);
+                List<Thread> producers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    Thread producer = new Thread(() -> {
+                        started.countDown();
+                        for (int i = 0; i < perThread; i++) {
+                            journal.append("ou_id", String.valueOf(i), null, new SendMailException("failure"));
+                        }
+                    });
+                    producers.add(producer);
+                    producer.start();
+                }
+                started.await();
+                journal.close();
+                for (Thread producer : producers) {
+                    producer.join();
+                }
+                // every result is either written or counted as dropped
+                assertThat(journal.getWritten() + journal.getDropped(), equalTo((long) threads * perThread));
+                assertThat(journal.getPending(), equalTo(0));
+                assertThat((long) ResultJournal.query(directory, e -> true).size(), equalTo(journal.getWritten()));
+            } finally {
+                delete(directory);
+            }
+        }
+    }
+
+    @Test
+    public void testStalledWriter() throws Exception {
+        Path directory = Files.createTempDirectory("harmony-journal");
+        try {
+            CountDownLatch stalled = new CountDownLatch(1);
+            ResultJournal journal = new ResultJournal(new ResultJournal.Builder(directory)
+                    .withRingSize(2)
+                    .withAppendTimeout(20, TimeUnit.MILLISECONDS)) {
+                @Override
+                boolean encode(Entry entry) {
+                    try {
+                        stalled.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return super.encode(entry);
+                }
+            };
+            for (int i = 0; i < 10; i++) {
+                journal.append("ou_id", String.valueOf(i), null, new SendMailException("failure"));
+            }
+            // appends gave up on the full ring instead of waiting for the writer
+            assertTrue(journal.getDropped() > 0);
+
+            stalled.countDown();
+            journal.close();
+            assertThat(journal.getWritten() + journal.getDropped(), equalTo(10L));
+            assertThat(journal.isFailed(), equalTo(false));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testDeadWriter() throws Exception {
+        Path directory = Files.createTempDirectory("harmony-journal");
+        try {
+            ResultJournal journal = new ResultJournal(new ResultJournal.Builder(directory).withRingSize(4)) {
+                @Override
+                boolean encode(Entry entry) {
+                    if (entry.getMessageId().equals("poison")) {
+                        throw new IllegalStateException("poison");
+                    }
+                    return super.encode(entry);
+                }
+            };
+            journal.append("ou_id", "poison", null, new SendMailException("failure"));
+            for (int i = 0; i < 500 && !journal.isFailed(); i++) {
+                Thread.sleep(10);
+            }
+            assertThat(journal.isFailed(), equalTo(true));
+
+            // appends neither wait for the dead writer nor pile up in the ring
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                journal.append("ou_id", String.valueOf(i), null, new SendMailException("failure"));
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            assertThat(journal.getPending(), equalTo(0));
+            assertThat(journal.getWritten(), equalTo(0L));
+            assertThat(journal.getDropped(), equalTo(101L));
+            journal.close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static List<Path> files(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void delete(Path directory) throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+}
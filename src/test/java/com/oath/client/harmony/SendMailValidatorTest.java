@@ -0,0 +1,139 @@
+package com.oath.client.harmony;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * {@code SendMailValidator} test.
+ *
+ * @author Mike Shauneu
+ */
+public class SendMailValidatorTest {
+
+    private final SendMailValidator validator = new SendMailValidator();
+
+    @Test
+    public void testNormalization() {
+        SendMailRequest request = new SendMailRequest("message_id",
+                new SendMailRequest.Recipient(" User@Email.IO ", " key ",
+                        new SendMailRequest.Attribute(" name ", "42", "Integer"), null));
+
+        assertThat(validator.validate(request), equalTo(Collections.<String>emptyList()));
+
+        SendMailRequest.Recipient recipient = request.getRecipients().get(0);
+        assertThat(recipient.getEmailAddress(), equalTo("user@email.io"));
+        assertThat(recipient.getCustomerKey(), equalTo("key"));
+        assertThat(recipient.getAttributes().size(), equalTo(1));
+        assertThat(recipient.getAttributes().get(0).getAttributeName(), equalTo("name"));
+    }
+
+    @Test
+    public void testProblems() {
+        SendMailRequest request = new SendMailRequest(null, Arrays.asList(
+                new SendMailRequest.Recipient("not-an-email", new SendMailRequest.Attribute("name", "value")),
+                new SendMailRequest.Recipient("user@email.io", (String) null, new SendMailRequest.Attribute("flag", "yes", "Boolean")),
+                new SendMailRequest.Recipient("user@email.io")), null);
+
+        assertThat(validator.validate(request), equalTo(Arrays.asList(
+                "id: missing",
+                "recipients[0].emailAddress: malformed 'not-an-email'",
+                "recipients[1].customerKey: missing",
+                "recipients[1].attributes[0].attributeValue: 'yes' is not a valid Boolean",
+                "recipients[2].attributes: missing")));
+
+        // default attributes make recipient attributes optional
+        request = new SendMailRequest("message_id", Arrays.asList(new SendMailRequest.Recipient("user@email.io")),
+                Arrays.asList(new SendMailRequest.Attribute("name", "value", "Color")));
+        assertThat(validator.validate(request), equalTo(Arrays.asList(
+                "defaultAttributes[0].attributeType: unknown 'Color'")));
+
+        List<SendMailRequest.Recipient> recipients = new ArrayList<>();
+        for (int i = 0; i <= SendMailValidator.MAX_RECIPIENTS; i++) {
+            recipients.add(new SendMailRequest.Recipient("user" + i + "@email.io", new SendMailRequest.Attribute("n", "v")));
+        }
+        request = new SendMailRequest("message_id", recipients, null);
+        assertThat(validator.validate(request), equalTo(Arrays.asList("recipients: 11 exceed the limit of 10")));
+    }
+
+    @Test
+    public void testValidateAll() {
+        List<SendMailRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            requests.add(new SendMailRequest("message_id", new SendMailRequest.Recipient(
+                    i % 1000 == 0 ? "user" + i : "USER" + i + "@email.io", new SendMailRequest.Attribute("n", "v"))));
+        }
+
+        SortedMap<Integer, SendMailException> failures = new SendMailValidator(new ForkJoinPool(4)).validateAll(requests);
+
+        assertThat(failures.size(), equalTo(10));
+        assertThat(failures.firstKey(), equalTo(0));
+        assertThat(failures.get(1000).getCategory(), equalTo(SendMailException.Category.INVALID_REQUEST));
+        assertThat(failures.get(1000).getMessage(),
+                equalTo("HARMONY: Invalid request - recipients[0].emailAddress: malformed 'user1000'"));
+        assertThat(requests.get(1).getRecipients().get(0).getEmailAddress(), equalTo("user1@email.io"));
+    }
+
+    @Test
+    public void testSharedParts() {
+        SendMailRequest.Attribute attribute = new SendMailRequest.Attribute(" name ", "value");
+        List<SendMailRequest.Attribute> defaultAttributes = Arrays.asList(attribute, null);
+        SendMailRequest.Recipient recipient = new SendMailRequest.Recipient(" User@Email.IO ", attribute);
+        List<SendMailRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            requests.add(new SendMailRequest("message_id", Arrays.asList(recipient), defaultAttributes));
+        }
+
+        SortedMap<Integer, SendMailException> failures = new SendMailValidator(new ForkJoinPool(4)).validateAll(requests);
+
+        assertThat(failures.isEmpty(), equalTo(true));
+        // requests got normalized copies, the shared parts are left as they were
+        assertThat(attribute.getAttributeName(), equalTo(" name "));
+        assertThat(defaultAttributes.size(), equalTo(2));
+        assertThat(recipient.getEmailAddress(), equalTo(" User@Email.IO "));
+        for (SendMailRequest request : requests) {
+            assertThat(request.getDefaultAttributes().size(), equalTo(1));
+            assertThat(request.getDefaultAttributes().get(0).getAttributeName(), equalTo("name"));
+            assertThat(request.getRecipients().get(0).getEmailAddress(), equalTo("user@email.io"));
+            assertThat(request.getRecipients().get(0).getAttributes().get(0).getAttributeName(), equalTo("name"));
+        }
+    }
+
+    @Test
+    public void testClientRejectsLocally() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        HarmonyClient harmonyClient = new HarmonyClient.Builder()
+                .withClientId("client_id")
+                .withClientPass("client_pass")
+                .withUserName("user_name")
+                .withUserPass("user_pass")
+                .withValidation(true)
+                .withTransport(InMemoryTransport.factory(request -> {
+                    calls.incrementAndGet();
+                    return new TransportResponse(200, "application/json", "{}".getBytes());
+                }))
+                .build();
+
+        try {
+            harmonyClient.sendMail("ou_id", new SendMailRequest("message_id", new SendMailRequest.Recipient("bad"))).get();
+            throw new AssertionError("SendMailException expected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(SendMailException.class));
+            assertThat(((SendMailException) e.getCause()).getCategory(), equalTo(SendMailException.Category.INVALID_REQUEST));
+        }
+        assertThat(calls.get(), equalTo(0));
+        assertThat(harmonyClient.getErrorCount(SendMailException.Category.INVALID_REQUEST), equalTo(1L));
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.oath.client.harmony;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention benchmark of a single dispatcher against sharded dispatchers, run as a main class:
+ * {@code ShardingBenchmark [seconds] [shards] [threads]}.
+ *
+ * <p>For 1 to the given number of sending threads (available processors, at least 4, by default)
+ * it reports sends per second of a client with one shard and of a client with the given number of
+ * shards (available processors, at least 2, by default), against a {@link BenchmarkServer}.
+ *
+ * @author Mike Shauneu
+ */
+public class ShardingBenchmark {
+
+    /** Sends in flight per sending thread. */
+    private static final int WINDOW = 16;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkServer.quietLogging();
+
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int processors = Runtime.getRuntime().availableProcessors();
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(processors, 2);
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(processors, 4);
+
+        System.out.printf("%8s %14s %14s%n", "threads", "1 shard/s", shards + " shards/s");
+        try (BenchmarkServer server = new BenchmarkServer(processors * 2)) {
+            for (int threads = 1; threads <= maxThreads; threads++) {
+                double single = run(server, 1, threads, seconds);
+                double sharded = run(server, shards, threads, seconds);
+                System.out.printf("%8d %14.0f %14.0f%n", threads, single, sharded);
+            }
+        }
+    }
+
+    private static double run(BenchmarkServer server, int shards, int threads, int seconds) throws Exception {
+        try (HarmonyClient harmonyClient = server.client()
+                .withShards(shards, ShardSelection.ROUND_ROBIN)
+                .build()) {
+            harmonyClient.getManagement().setMaxRequests(threads * WINDOW);
+            harmonyClient.getManagement().setMaxRequestsPerHost(threads * WINDOW);
+
+            SendMailRequest request = new SendMailRequest("message_id",
+                    new SendMailRequest.Recipient("user@email.io", new SendMailRequest.Attribute("name", "value")));
+            // warm up connections and the token
+            harmonyClient.sendMail("ou_id", request).get();
+
+            LongAdder sent = new LongAdder();
+            CountDownLatch done = new CountDownLatch(threads);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                Thread thread = new Thread(() -> {
+                    Semaphore window = new Semaphore(WINDOW);
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            window.acquire();
+                            harmonyClient.sendMail("ou_id", request).whenComplete((response, e) -> {
+                                if (e == null) {
+                                    sent.increment();
+                                }
+                                window.release();
+                            });
+                        }
+                        window.acquire(WINDOW);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }, "harmony-benchmark-" + t);
+                thread.start();
+            }
+            done.await();
+            return sent.sum() * 1e9 / (System.nanoTime() - start);
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.oath.client.harmony;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * {@code TimingWheel} and scheduled send test.
+ *
+ * @author Mike Shauneu
+ */
+public class TimingWheelTest {
+
+    @Test
+    public void testExpiry() throws Exception {
+        // 4 buckets of 10ms, so longer delays take several rounds
+        TimingWheel wheel = new TimingWheel("test-timer", TimeUnit.MILLISECONDS.toNanos(10), 3);
+        List<Integer> expired = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+
+        long start = System.nanoTime();
+        wheel.schedule(timeout(3, expired, latch), TimeUnit.MILLISECONDS.toNanos(150));
+        wheel.schedule(timeout(1, expired, latch), TimeUnit.MILLISECONDS.toNanos(20));
+        wheel.schedule(timeout(2, expired, latch), TimeUnit.MILLISECONDS.toNanos(70));
+        TimingWheel.Timeout cancelled = timeout(4, expired, latch);
+        wheel.schedule(cancelled, TimeUnit.MILLISECONDS.toNanos(40));
+        assertThat(wheel.size(), equalTo(4));
+        assertTrue(cancelled.cancel());
+        assertThat(wheel.size(), equalTo(3));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertThat(expired.toString(), equalTo("[1, 2, 3]"));
+        assertThat(wheel.size(), equalTo(0));
+        assertThat(cancelled.cancel(), equalTo(false));
+
+        TimingWheel.Timeout unprocessed = timeout(5, expired, latch);
+        wheel.schedule(unprocessed, TimeUnit.HOURS.toNanos(1));
+        // does not overflow into the past
+        TimingWheel.Timeout forever = timeout(6, expired, latch);
+        wheel.schedule(forever, Long.MAX_VALUE);
+        Thread.sleep(50);
+        assertThat(expired.toString(), equalTo("[1, 2, 3]"));
+        List<TimingWheel.Timeout> stopped = wheel.stop();
+        assertThat(stopped.size(), equalTo(2));
+        assertTrue(stopped.contains(unprocessed));
+        assertTrue(stopped.contains(forever));
+    }
+
+    @Test
+    public void testStopRace() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            TimingWheel wheel = new TimingWheel("test-timer", TimeUnit.MILLISECONDS.toNanos(10), 4);
+            List<TimingWheel.Timeout> scheduled = new ArrayList<>();
+            CountDownLatch started = new CountDownLatch(1);
+            Thread scheduler = new Thread(() -> {
+                for (int id = 0;; id++) {
+                    TimingWheel.Timeout t = timeout(id, new ArrayList<>(), new CountDownLatch(1));
+                    if (!wheel.schedule(t, TimeUnit.HOURS.toNanos(1))) {
+                        return;
+                    }
+                    scheduled.add(t);
+                    started.countDown();
+                }
+            });
+            scheduler.start();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            List<TimingWheel.Timeout> stopped = wheel.stop();
+            scheduler.join();
+            // every timeout scheduled is handed back, none is left behind in the stopped wheel
+            assertThat(new HashSet<>(stopped), equalTo(new HashSet<>(scheduled)));
+            assertThat(wheel.size(), equalTo(0));
+        }
+    }
+
+    @Test
+    public void testScheduledSend() throws Exception {
+        HarmonyClient harmonyClient = new HarmonyClient.Builder()
+                .withClientId("client_id")
+                .withClientPass("client_pass")
+                .withUserName("user_name")
+                .withUserPass("user_pass")
+                .withTransport(InMemoryTransport.factory(request -> {
+                    if ("POST".equals(request.getMethod())) {
+                        return new TransportResponse(200, "application/json",
+                                "{\"access_token\":\"access_token\"}".getBytes(StandardCharsets.UTF_8));
+                    }
+                    return new TransportResponse(200, "application/json",
+                            "{\"resultCode\":\"OK\"}".getBytes(StandardCharsets.UTF_8));
+                }))
+                .build();
+
+        SendMailRequest request = new SendMailRequest("message_id",
+                new SendMailRequest.Recipient("user@email.io", new SendMailRequest.Attribute("name", "value")));
+
+        long start = System.nanoTime();
+        CompletableFuture<SendMailResponse> due = harmonyClient.sendMailAfter("ou_id", request, 200, TimeUnit.MILLISECONDS);
+        CompletableFuture<SendMailResponse> cancelled = harmonyClient.sendMailAt("ou_id", request,
+                Instant.now().plusMillis(300));
+        CompletableFuture<SendMailResponse> pending = harmonyClient.sendMailAfter("ou_id", request, 1, TimeUnit.DAYS);
+        CompletableFuture<SendMailResponse> forever = harmonyClient.sendMailAfter("ou_id", request,
+                Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        assertThat(harmonyClient.getScheduledSends(), equalTo(4));
+        assertThat(due.isDone(), equalTo(false));
+
+        assertTrue(cancelled.cancel(false));
+        assertThat(harmonyClient.getScheduledSends(), equalTo(3));
+
+        assertThat(due.get(5, TimeUnit.SECONDS).getResultCode(), equalTo("OK"));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertThat(harmonyClient.getScheduledSends(), equalTo(2));
+        assertThat(forever.isDone(), equalTo(false));
+
+        // not positive delays are sent right away
+        assertThat(harmonyClient.sendMailAt("ou_id", request, Instant.EPOCH).get().getResultCode(), equalTo("OK"));
+
+        harmonyClient.close();
+        assertTrue(pending.isCancelled());
+        assertTrue(forever.isCancelled());
+        assertTrue(harmonyClient.sendMailAfter("ou_id", request, 1, TimeUnit.DAYS).isCancelled());
+    }
+
+    private static TimingWheel.Timeout timeout(int id, List<Integer> expired, CountDownLatch latch) {
+        return new TimingWheel.Timeout() {
+            @Override
+            void expire() {
+                expired.add(id);
+                latch.countDown();
+            }
+        };
+    }
+
+}
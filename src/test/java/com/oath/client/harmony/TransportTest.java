@@ -0,0 +1,247 @@
+package com.oath.client.harmony;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * {@code Transport} backends test.
+ *
+ * @author Mike Shauneu
+ */
+public class TransportTest {
+
+    private static final String TOKEN = "{\"access_token\":\"access_token\"}";
+
+    private static final String SENT = "{\"resultCode\":\"OK\",\"messageId\":\"message_id\"}";
+
+    @Test
+    public void testOkHttpTransport() throws Exception {
+        testServer(OkHttpTransport.factory());
+    }
+
+    @Test
+    public void testShardedOkHttpTransport() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    if ("POST".equals(request.getMethod())) {
+                        return new MockResponse().setResponseCode(200).setBody(TOKEN);
+                    }
+                    if (!"Bearer access_token".equals(request.getHeader("Authorization"))) {
+                        return new MockResponse().setResponseCode(HttpURLConnection.HTTP_FORBIDDEN);
+                    }
+                    return new MockResponse().setResponseCode(200).setBody(SENT);
+                }
+            });
+
+            try (HarmonyClient harmonyClient = builder("http://localhost:" + server.getPort())
+                    .withShards(4, ShardSelection.ROUND_ROBIN)
+                    .build()) {
+
+                for (int i = 0; i < 8; i++) {
+                    assertThat(harmonyClient.sendMail("ou_id", request()).get().getMessageId(), equalTo("message_id"));
+                }
+                // a pool per shard, connections reused within a shard
+                assertThat(harmonyClient.getManagement().getPoolConnections(), equalTo(4));
+
+                // limits are split between shards
+                assertThat(harmonyClient.getManagement().getMaxRequests(), equalTo(64));
+                harmonyClient.getManagement().setMaxRequests(10);
+                assertThat(harmonyClient.getManagement().getMaxRequests(), equalTo(10));
+                assertThat(harmonyClient.getManagement().getMaxRequestsPerHost(), equalTo(5));
+                harmonyClient.getManagement().setMaxRequestsPerHost(6);
+                assertThat(harmonyClient.getManagement().getMaxRequestsPerHost(), equalTo(6));
+                try {
+                    // a shard cannot get no share
+                    harmonyClient.getManagement().setMaxRequestsPerHost(2);
+                    throw new AssertionError("IllegalArgumentException expected");
+                } catch (IllegalArgumentException e) {
+                    assertThat(harmonyClient.getManagement().getMaxRequestsPerHost(), equalTo(6));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCampaignShards() throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    return new MockResponse().setResponseCode(200)
+                            .setBody("POST".equals(request.getMethod()) ? TOKEN : SENT);
+                }
+            });
+
+            try (HarmonyClient harmonyClient = builder("http://localhost:" + server.getPort())
+                    .withShards(4, ShardSelection.CAMPAIGN)
+                    .build()) {
+
+                // every send of a campaign goes to the same shard and reuses its connection
+                for (int i = 0; i < 8; i++) {
+                    harmonyClient.sendMail("ou_id", request()).get();
+                }
+                assertThat(harmonyClient.getManagement().getPoolConnections(), equalTo(1));
+
+                // campaigns are spread over all shards
+                for (int i = 0; i < 32; i++) {
+                    harmonyClient.sendMail("ou_id_" + i, request()).get();
+                }
+                assertThat(harmonyClient.getManagement().getPoolConnections(), equalTo(4));
+            }
+        }
+    }
+
+    @Test
+    public void testJdkTransport() throws Exception {
+        // java.net.http.HttpClient from Java 11
+        Transport.Config config = new Transport.Config(refresh -> "Bearer token", 0, 2);
+        try (Transport transport = JdkTransport.factory(Executors.newCachedThreadPool()).create(config)) {
+            assertThat(transport.getClass().getSimpleName(), equalTo("HttpClientTransport"));
+        }
+        testServer(JdkTransport.factory(Executors.newCachedThreadPool()));
+    }
+
+    @Test
+    public void testHttpUrlConnectionTransport() throws Exception {
+        testServer(config -> new JdkTransport(config, Executors.newCachedThreadPool()));
+    }
+
+    @Test
+    public void testJdkTransportSettings() throws Exception {
+        // neither caches addresses
+        Transport.Config dnsTtl = new Transport.Config(refresh -> "Bearer token", TimeUnit.MINUTES.toNanos(1));
+        assertUnsupported(() -> JdkTransport.factory(Executors.newCachedThreadPool()).create(dnsTtl));
+        assertUnsupported(() -> new JdkTransport(dnsTtl, Executors.newCachedThreadPool()));
+        // only HttpClient shards
+        Transport.Config sharded = new Transport.Config(refresh -> "Bearer token", 0, 2);
+        assertUnsupported(() -> new JdkTransport(sharded, Executors.newCachedThreadPool()));
+
+        // timeouts are honored
+        try (MockWebServer server = new MockWebServer()) {
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                    Thread.sleep(1000);
+                    return new MockResponse().setResponseCode(200).setBody(SENT);
+                }
+            });
+            Transport.Config config = new Transport.Config(refresh -> "Bearer token", 0, 1, 1000, 100);
+            for (Transport transport : Arrays.asList(JdkTransport.factory(Executors.newCachedThreadPool()).create(config),
+                    new JdkTransport(config, Executors.newCachedThreadPool()))) {
+                try {
+                    transport.execute(new TransportRequest.Builder()
+                            .withUrl("http://localhost:" + server.getPort() + "/").build()).close();
+                    throw new AssertionError("IOException expected");
+                } catch (IOException e) {
+                    // timed out
+                } finally {
+                    transport.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInMemoryTransport() throws Exception {
+        List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        try (HarmonyClient harmonyClient = builder("http://harmony.test")
+                .withTransport(InMemoryTransport.factory(request -> {
+                    requests.add(request.getMethod() + " " + request.getHeader("Authorization"));
+                    if ("POST".equals(request.getMethod())) {
+                        return new TransportResponse(200, "application/json", TOKEN.getBytes(StandardCharsets.UTF_8));
+                    }
+                    if (!"Bearer access_token".equals(request.getHeader("Authorization"))) {
+                        return new TransportResponse(HttpURLConnection.HTTP_FORBIDDEN, null, null);
+                    }
+                    return new TransportResponse(200, "application/json", SENT.getBytes(StandardCharsets.UTF_8));
+                }))
+                .build()) {
+
+            assertThat(harmonyClient.sendMail("ou_id", request()).get().getMessageId(), equalTo("message_id"));
+            assertThat(requests.size(), equalTo(3));
+            assertThat(requests.get(0), equalTo("PUT Bearer null"));
+            assertThat(requests.get(1).startsWith("POST Basic "), equalTo(true));
+            assertThat(requests.get(2), equalTo("PUT Bearer access_token"));
+        }
+    }
+
+    private static void testServer(Transport.Factory factory) throws Exception {
+        try (MockWebServer server = new MockWebServer()) {
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    if ("POST".equals(request.getMethod())) {
+                        return new MockResponse().setResponseCode(200).setBody(TOKEN);
+                    }
+                    if (!"Bearer access_token".equals(request.getHeader("Authorization"))) {
+                        return new MockResponse().setResponseCode(HttpURLConnection.HTTP_FORBIDDEN);
+                    }
+                    return new MockResponse().setResponseCode(200).setBody(SENT);
+                }
+            });
+
+            try (HarmonyClient harmonyClient = builder("http://localhost:" + server.getPort())
+                    .withTransport(factory)
+                    .build()) {
+
+                for (int i = 0; i < 3; i++) {
+                    SendMailResponse response = harmonyClient.sendMail("ou_id", request()).get();
+                    assertThat(response.getResultCode(), equalTo(SendMailResponse.RESULT_CODE_SUCCESS));
+                    assertThat(response.getMessageId(), equalTo("message_id"));
+                }
+                // rejected send, token fetch, then three authorized sends
+                assertThat(server.getRequestCount(), equalTo(5));
+
+                RecordedRequest request = server.takeRequest();
+                assertThat(request.getMethod(), equalTo("PUT"));
+                assertThat(request.getHeader("X-OUID"), equalTo("ou_id"));
+                assertThat(request.getHeader("Content-Type").startsWith("application/json"), equalTo(true));
+                assertThat(request.getBody().readUtf8().contains("user@email.io"), equalTo(true));
+            }
+        }
+    }
+
+    private static void assertUnsupported(Runnable runnable) {
+        try {
+            runnable.run();
+            throw new AssertionError("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    private static HarmonyClient.Builder builder(String baseUrl) {
+        return new HarmonyClient.Builder()
+                .withAuthBaseUrl(baseUrl)
+                .withMsgBaseUrl(baseUrl)
+                .withClientId("client_id")
+                .withClientPass("client_pass")
+                .withUserName("user_name")
+                .withUserPass("user_pass");
+    }
+
+    private static SendMailRequest request() {
+        return new SendMailRequest("message_id",
+                new SendMailRequest.Recipient("user@email.io", new SendMailRequest.Attribute("name", "value")));
+    }
+
+}